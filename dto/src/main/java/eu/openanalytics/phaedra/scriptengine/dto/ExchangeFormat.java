@@ -0,0 +1,36 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.dto;
+
+/**
+ * Enum indicating how the input and output of a script are exchanged with the process executing it.
+ */
+public enum ExchangeFormat {
+    /**
+     * JSON text, parsed and produced by the script itself.
+     */
+    JSON,
+    /**
+     * Binary columns, which scripts read and write without parsing text. Numeric arrays become typed columns, which is
+     * considerably faster for large datasets. Only used when the worker exchanges the input and output through files.
+     */
+    BINARY
+}
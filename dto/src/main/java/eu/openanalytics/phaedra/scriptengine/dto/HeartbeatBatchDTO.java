@@ -0,0 +1,60 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Heartbeat of all script executions running on a single worker.
+ */
+@Value
+@Builder
+@NoArgsConstructor(force = true, access = AccessLevel.PRIVATE) // Jackson deserialize compatibility
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HeartbeatBatchDTO {
+
+    @NonNull
+    String workerId;
+
+    @NonNull
+    List<String> scriptExecutionIds;
+
+    /**
+     * Resources used by the executions, by id of the execution. Only available for some executors.
+     */
+    Map<String, ResourceUsageDTO> resourceUsage;
+
+    public HeartbeatBatchDTO(String workerId, List<String> scriptExecutionIds) {
+        this(workerId, scriptExecutionIds, null);
+    }
+
+}
@@ -20,6 +20,8 @@
  */
 package eu.openanalytics.phaedra.scriptengine.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -31,9 +33,19 @@ import lombok.Value;
 @Builder
 @NoArgsConstructor(force = true, access = AccessLevel.PRIVATE) // Jackson deserialize compatibility
 @AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class HeartbeatDTO {
 
     @NonNull
     String scriptExecutionId;
 
+    /**
+     * Resources used by the execution, only available for some executors.
+     */
+    ResourceUsageDTO resourceUsage;
+
+    public HeartbeatDTO(String scriptExecutionId) {
+        this(scriptExecutionId, null);
+    }
+
 }
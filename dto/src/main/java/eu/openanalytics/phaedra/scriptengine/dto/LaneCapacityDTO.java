@@ -0,0 +1,49 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Capacity of a single lane of a worker, see {@link WorkerCapacityDTO}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LaneCapacityDTO {
+
+    /**
+     * Maximum number of slots the lane may use.
+     */
+    Integer slots;
+
+    /**
+     * Number of slots the lane can use right now, i.e. bounded by both its own share and the free slots of the worker.
+     */
+    Integer freeSlots;
+
+    Integer queueDepth;
+
+}
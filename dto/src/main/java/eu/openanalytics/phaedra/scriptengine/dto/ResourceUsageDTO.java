@@ -0,0 +1,65 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resources used so far by a running script execution, and optionally its progress as reported by the script.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResourceUsageDTO {
+
+    /**
+     * Time since the start of the execution.
+     */
+    Long elapsedMillis;
+
+    /**
+     * CPU time (user and system) used by the process tree of the execution.
+     */
+    Long cpuTimeMillis;
+
+    /**
+     * Peak resident set size of the process tree of the execution, or peak memory usage of its cgroup when it has one.
+     */
+    Long peakRssBytes;
+
+    /**
+     * Progress reported by the script, between 0 and 1.
+     */
+    Double progress;
+
+    /**
+     * Optional message reported by the script together with its progress.
+     */
+    String progressMessage;
+
+}
@@ -27,6 +27,19 @@ public enum ResponseStatusCode {
     SUCCESS,
     SCRIPT_ERROR,
     BAD_REQUEST,
+    /**
+     * The script produced more output than the worker accepts, see phaedra2.script-engine-worker.max-output-bytes.
+     */
+    OUTPUT_TOO_LARGE,
+    /**
+     * The script did not finish within its timeout, see phaedra2.script-engine-worker.timeout-seconds and
+     * {@link ScriptExecutionInputDTO#getTimeoutSeconds()}.
+     */
+    SCRIPT_TIMEOUT,
+    /**
+     * The script was killed because it exceeded its memory limit, see phaedra2.script-engine-worker.memory-max-bytes.
+     */
+    SCRIPT_OUT_OF_MEMORY,
     WORKER_INTERNAL_ERROR {
         @Override
         public boolean canBeRetried() {
@@ -39,5 +39,20 @@ public class ScriptExecutionInputDTO {
     String language;
     String input;
 
+    /**
+     * When true, the worker neither re-uses nor caches the output of this execution (e.g. for non-deterministic scripts).
+     */
+    Boolean bypassCache;
+
+    /**
+     * Maximum duration of this execution in seconds. Can only shorten the timeout configured for the language.
+     */
+    Integer timeoutSeconds;
+
+    /**
+     * How the input and output are exchanged with the script, defaults to {@link ExchangeFormat#JSON}.
+     */
+    ExchangeFormat exchangeFormat;
+
 }
 
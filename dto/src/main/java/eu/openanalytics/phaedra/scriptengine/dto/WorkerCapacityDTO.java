@@ -0,0 +1,75 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.dto;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Capacity advertised periodically by a worker, used to aggregate the free capacity of the cluster.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WorkerCapacityDTO {
+
+    String workerId;
+    String language;
+    String poolName;
+    String version;
+
+    /**
+     * Time (epoch millis) at which the worker measured its capacity.
+     */
+    Long timestamp;
+
+    Integer totalSlots;
+    Integer freeSlots;
+
+    /**
+     * Number of requests accepted by the worker that are waiting for a slot.
+     */
+    Integer queueDepth;
+
+    /**
+     * Average execution time of the scripts completed since the previous record, null when no scripts completed.
+     */
+    Long averageExecutionMillis;
+
+    /**
+     * Accepted (queued and running) requests divided by the total number of slots, above 1 the worker is saturated.
+     */
+    Double load;
+
+    /**
+     * Capacity of each lane served by the worker.
+     */
+    Map<String, LaneCapacityDTO> lanes;
+
+}
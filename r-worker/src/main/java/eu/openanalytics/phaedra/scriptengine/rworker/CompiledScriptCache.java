@@ -0,0 +1,149 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of byte-compiled (using R's compiler package) scripts, keyed by the SHA-256 hash of the script.
+ * <p>
+ * The R side is implemented by compiled-scripts.R: a script is run through {@code .phaedraRun}, which keeps its
+ * byte-compiled form in the memory of warm R processes (see {@link RExecutorMode}) and, when a directory is configured,
+ * on disk. Scripts that are re-used therefore skip parsing and compilation. After every execution, where the script was
+ * found is counted in {@code phaedra2.scriptengine.worker.r.compiled-scripts}, tagged with result memory, disk or miss.
+ */
+@Slf4j
+class CompiledScriptCache {
+
+    /**
+     * Environment variable through which R processes find the directory of the cache.
+     */
+    static final String CACHE_DIRECTORY_VARIABLE = "PHAEDRA_COMPILED_SCRIPT_CACHE";
+
+    /**
+     * Environment variable through which R processes find the maximum number of scripts to keep in memory.
+     */
+    static final String MEMORY_MAX_SCRIPTS_VARIABLE = "PHAEDRA_COMPILED_SCRIPT_MEMORY_MAX";
+
+    /**
+     * The file in the workspace containing the script of the user, next to the full script.
+     */
+    static final String USER_SCRIPT = "user-script.R";
+
+    /**
+     * The file in the workspace to which the R side writes where the script was found.
+     */
+    private static final String RESULT_FILE = "compiled-script-cache.txt";
+
+    static final String FUNCTIONS = RExecutor.readResource("/compiled-scripts.R");
+
+    private final RWorkerConfig config;
+    private final MeterRegistry meterRegistry;
+
+    CompiledScriptCache(RWorkerConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @return the R code running the user script of the execution from the cache, defining the functions of the
+     * cache first unless the process already did so (e.g. a pooled process or the fork server).
+     */
+    String getScript(ScriptExecution scriptExecution) {
+        return "if (!exists(\".phaedraRun\")) attach(" + FUNCTIONS + ", name = \"phaedra:compiled-scripts\")\n" +
+            ".phaedraRun(\"" + hash(scriptExecution) + "\", \"" + USER_SCRIPT + "\")\n";
+    }
+
+    /**
+     * @return the key of the script of the execution in the cache.
+     */
+    String hash(ScriptExecution scriptExecution) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(scriptExecution.getScriptExecutionInput().getScript().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Passes the directory of the cache and the maximum number of scripts kept in memory to the R process.
+     */
+    void configure(ProcessBuilder builder) {
+        builder.environment().put(MEMORY_MAX_SCRIPTS_VARIABLE, config.getCompiledScriptMemoryMaxScripts().toString());
+        if (config.getCompiledScriptCache() != null) {
+            builder.environment().put(CACHE_DIRECTORY_VARIABLE, config.getCompiledScriptCache());
+        }
+    }
+
+    /**
+     * Counts where the script of the execution was found, and removes the oldest scripts from disk when a new
+     * script was added.
+     */
+    void record(ScriptExecution scriptExecution) {
+        var resultFile = scriptExecution.getWorkspace().resolve(RESULT_FILE);
+        String result;
+        try {
+            if (!Files.exists(resultFile)) return;
+            result = Files.readString(resultFile).trim();
+        } catch (IOException e) {
+            return;
+        }
+        Counter.builder("phaedra2.scriptengine.worker.r.compiled-scripts")
+            .description("Number of executions by where their byte-compiled script was found")
+            .tag("result", result)
+            .register(meterRegistry)
+            .increment();
+
+        if (result.equals("miss") && config.getCompiledScriptCache() != null) {
+            evict(Path.of(config.getCompiledScriptCache()));
+        }
+    }
+
+    private void evict(Path directory) {
+        try (var files = Files.list(directory)) {
+            var compiledScripts = files.filter(f -> f.getFileName().toString().endsWith(".rds")).collect(Collectors.toList());
+            var excess = compiledScripts.size() - config.getCompiledScriptCacheMaxFiles();
+            if (excess <= 0) return;
+            compiledScripts.stream()
+                .sorted(Comparator.comparing(f -> f.toFile().lastModified()))
+                .limit(excess)
+                .forEach(f -> f.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Cannot remove compiled scripts from " + directory, e);
+        }
+    }
+
+}
@@ -21,13 +21,20 @@
 package eu.openanalytics.phaedra.scriptengine.rworker;
 
 import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
+import eu.openanalytics.phaedra.scriptengine.config.IoMode;
+import eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat;
 import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
 import eu.openanalytics.phaedra.scriptengine.executor.ExternalProcessExecutor;
 import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
 import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Implemention of {@link IExecutor} that can execute R scripts.
@@ -35,16 +42,38 @@ import java.io.IOException;
 @Slf4j
 public class RExecutor extends ExternalProcessExecutor {
 
-    public RExecutor(ExternalProcessConfig config) {
-        super(config);
+    /**
+     * R functions reading and writing the binary columnar format, see {@link ExchangeFormat#BINARY}.
+     */
+    private static final String COLUMNAR_FUNCTIONS = readResource("/columnar.R");
+
+    /**
+     * The cache of byte-compiled scripts, or null when scripts are not compiled.
+     */
+    protected final CompiledScriptCache compiledScriptCache;
+
+    public RExecutor(ExternalProcessConfig config, MeterRegistry meterRegistry) {
+        this(config, new RWorkerConfig(), meterRegistry);
+    }
+
+    public RExecutor(ExternalProcessConfig config, RWorkerConfig rWorkerConfig, MeterRegistry meterRegistry) {
+        super(config, meterRegistry);
+        this.compiledScriptCache = rWorkerConfig.getCompileScripts() ? new CompiledScriptCache(rWorkerConfig, meterRegistry) : null;
     }
 
     @Override
     protected String getFullScript(ScriptExecution scriptExecution) {
-        String fullScript = "fh <- file(\"input.json\")\n" +
+        if (getIoMode() == IoMode.PIPE) {
+            return getFullPipeScript(scriptExecution);
+        }
+        if (getExchangeFormat(scriptExecution) == ExchangeFormat.BINARY) {
+            return getFullBinaryScript(scriptExecution);
+        }
+        String fullScript = "reportProgress <- function(progress, message = \"\") writeLines(paste(progress, message), \"" + PROGRESS_FILE + "\")\n" +
+            "fh <- file(\"input.json\")\n" +
             "input <- rjson::fromJSON(file=\"input.json\", simplify=TRUE)\n" +
             "close(fh)\n" +
-            scriptExecution.getScriptExecutionInput().getScript() + "\n" +
+            getUserScript(scriptExecution) +
             "fh <- file(\"output.json\")\n" +
             "writeLines(rjson::toJSON(list(output = output)), fh)\n" +
             "close(fh)\n";
@@ -54,6 +83,97 @@ public class RExecutor extends ExternalProcessExecutor {
 
     }
 
+    /**
+     * Variant of the script that reads its input from stdin and writes its output to stdout.
+     * Any other output of the script is diverted to stderr, so that stdout only contains the output.
+     */
+    private String getFullPipeScript(ScriptExecution scriptExecution) {
+        String fullScript = "reportProgress <- function(progress, message = \"\") writeLines(paste(progress, message), \"" + PROGRESS_FILE + "\")\n" +
+            "fh <- file(\"stdin\")\n" +
+            "input <- rjson::fromJSON(paste(readLines(fh), collapse=\"\\n\"), simplify=TRUE)\n" +
+            "close(fh)\n" +
+            "sink(stderr())\n" +
+            getUserScript(scriptExecution) +
+            "sink()\n" +
+            "writeLines(rjson::toJSON(list(output = output)), stdout())\n";
+        log.info("Full script: " + fullScript);
+
+        return fullScript;
+    }
+
+    /**
+     * Variant of the script that reads its input from and writes its output to binary columnar files.
+     */
+    private String getFullBinaryScript(ScriptExecution scriptExecution) {
+        String fullScript = "reportProgress <- function(progress, message = \"\") writeLines(paste(progress, message), \"" + PROGRESS_FILE + "\")\n" +
+            COLUMNAR_FUNCTIONS +
+            "input <- .readColumns(\"input.bin\")\n" +
+            getUserScript(scriptExecution) +
+            ".writeColumns(list(output = output), \"output.bin\")\n";
+        log.info("Full script: " + scriptExecution.getScriptExecutionInput().getScript());
+
+        return fullScript;
+    }
+
+    /**
+     * @return the R code running the script of the user, from its byte-compiled form when scripts are compiled.
+     */
+    private String getUserScript(ScriptExecution scriptExecution) {
+        if (compiledScriptCache != null) {
+            return compiledScriptCache.getScript(scriptExecution);
+        }
+        return scriptExecution.getScriptExecutionInput().getScript() + "\n";
+    }
+
+    /**
+     * @return the script of a warm R process (see {@link RExecutorMode}), which defines the functions of the cache of
+     * byte-compiled scripts up-front when scripts are compiled, so that the process keeps them across executions.
+     */
+    protected String getServerScript(String resource) {
+        var serverScript = readResource(resource);
+        if (compiledScriptCache != null) {
+            return "attach(" + CompiledScriptCache.FUNCTIONS + ", name = \"phaedra:compiled-scripts\")\n" + serverScript;
+        }
+        return serverScript;
+    }
+
+    /**
+     * Passes the configuration of the R side (e.g. the directory of the cache of byte-compiled scripts) to the process.
+     */
+    protected void configureProcess(ProcessBuilder builder) {
+        if (compiledScriptCache != null) {
+            compiledScriptCache.configure(builder);
+        }
+    }
+
+    @Override
+    protected void setupEnv(ScriptExecution scriptExecution) throws WorkerException {
+        super.setupEnv(scriptExecution);
+        if (compiledScriptCache != null) {
+            try {
+                Files.writeString(scriptExecution.getWorkspace().resolve(CompiledScriptCache.USER_SCRIPT),
+                    scriptExecution.getScriptExecutionInput().getScript(), StandardOpenOption.CREATE_NEW);
+            } catch (IOException e) {
+                throw new WorkerException("Cannot create script file", e);
+            }
+        }
+    }
+
+    @Override
+    protected void onScriptExecuted(ScriptExecution scriptExecution) {
+        if (compiledScriptCache != null) {
+            compiledScriptCache.record(scriptExecution);
+        }
+    }
+
+    protected static String readResource(String name) {
+        try (var stream = RExecutor.class.getResourceAsStream(name)) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     protected String getScriptName(ScriptExecution scriptExecution) {
         return "script.R";
@@ -65,10 +185,11 @@ public class RExecutor extends ExternalProcessExecutor {
         builder.command("/usr/bin/Rscript", "--vanilla", "script.R");
 
         builder.directory(scriptExecution.getWorkspace().toFile());
+        configureProcess(builder);
 
         try {
-            Process process = builder.start();
-            return process.waitFor();
+            Process process = startProcess(scriptExecution, builder);
+            return waitFor(scriptExecution, process);
         } catch (IOException e) {
             throw new WorkerException("Internal error during execution of the script", e);
         }
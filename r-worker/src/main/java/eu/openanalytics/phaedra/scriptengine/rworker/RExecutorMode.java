@@ -0,0 +1,39 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+/**
+ * How the R worker executes scripts, see phaedra2.script-engine-worker.r.mode.
+ */
+public enum RExecutorMode {
+    /**
+     * Start a new Rscript process for every execution, see {@link RExecutor}.
+     */
+    RSCRIPT,
+    /**
+     * Run the scripts in a pool of long-lived R processes, see {@link RProcessPoolExecutor}.
+     */
+    POOL,
+    /**
+     * Fork a child per execution from a single R process that preloaded the packages, see {@link RForkServerExecutor}.
+     */
+    FORK_SERVER
+}
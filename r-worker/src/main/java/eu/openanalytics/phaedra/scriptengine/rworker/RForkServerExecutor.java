@@ -0,0 +1,312 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
+import eu.openanalytics.phaedra.scriptengine.config.IoMode;
+import eu.openanalytics.phaedra.scriptengine.exception.ScriptTimeoutException;
+import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
+import eu.openanalytics.phaedra.scriptengine.executor.OutputTail;
+import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link RExecutor} in which a single R process (the fork server) preloads the packages and forks a
+ * child per script. The children share the memory of the packages copy-on-write and exit after their script, so that
+ * every script starts from a fresh state without paying the startup of R.
+ * <p>
+ * The fork server runs fork-server.R, which blocks on its stdin until it receives a request and reports when a child is
+ * forked on its stdout, the child reports when it finished. Multiple scripts run concurrently, each in its own child.
+ * When the fork server stops, the running executions fail and a new fork server is started for the next execution.
+ * <p>
+ * The input and output are always exchanged through files, since stdin and stdout are used by the protocol. The console
+ * output of a script is written to {@link #CONSOLE_FILE} in its workspace, from which its {@link OutputTail} is read.
+ * The resource usage of a child is reported in the heartbeats, but the children are not placed in a cgroup per
+ * execution.
+ */
+@Slf4j
+public class RForkServerExecutor extends RExecutor {
+
+    private static final String STARTED_MARKER = "PHAEDRA_STARTED ";
+    private static final String DONE_MARKER = "PHAEDRA_DONE ";
+
+    /**
+     * The file in the workspace receiving the console output of the script.
+     */
+    public static final String CONSOLE_FILE = "console.txt";
+
+    /**
+     * How long to wait for the response of a child after it exited, children that are killed (e.g. on timeout) exit
+     * without responding.
+     */
+    private static final long EXIT_GRACE_SECONDS = 1;
+
+    private final RWorkerConfig rWorkerConfig;
+    private final int outputTailBytes;
+    private final Path serverScript;
+    private final Map<String, Fork> forks = new ConcurrentHashMap<>();
+
+    private ForkServer forkServer;
+
+    /**
+     * Thread killing the children of executions that exceed their timeout.
+     */
+    private final ScheduledExecutorService timeouts;
+
+    public RForkServerExecutor(ExternalProcessConfig config, RWorkerConfig rWorkerConfig, MeterRegistry meterRegistry) {
+        super(config, rWorkerConfig, meterRegistry);
+        this.rWorkerConfig = rWorkerConfig;
+        this.outputTailBytes = config.getOutputTailBytes();
+        try {
+            serverScript = Files.createTempFile("phaedra2-fork-server", ".R");
+            serverScript.toFile().deleteOnExit();
+            Files.writeString(serverScript, getServerScript("/fork-server.R"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create the script of the fork server", e);
+        }
+        var threadFactory = new CustomizableThreadFactory("r-fork-timeout-");
+        threadFactory.setDaemon(true);
+        timeouts = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        try {
+            getForkServer();
+        } catch (WorkerException e) {
+            log.warn("Cannot start fork server, retrying at the first execution", e);
+        }
+    }
+
+    @Override
+    protected IoMode getIoMode() {
+        return IoMode.FILE;
+    }
+
+    @Override
+    protected int executeScript(ScriptExecution scriptExecution) throws WorkerException, InterruptedException {
+        var requestId = UUID.randomUUID().toString();
+        var fork = new Fork(scriptExecution);
+        forks.put(requestId, fork);
+        var outputTail = new OutputTail(outputTailBytes);
+        scriptExecution.setOutputTail(outputTail);
+
+        var timeoutSeconds = getTimeoutSeconds(scriptExecution);
+        var timeout = timeoutSeconds == null ? null : timeouts.schedule(() -> {
+            scriptExecution.setTimedOut(true);
+            fork.kill();
+        }, timeoutSeconds, TimeUnit.SECONDS);
+
+        try {
+            var server = getForkServer();
+            fork.server = server;
+            var request = requestId + "\t" + scriptExecution.getWorkspace() + "\t" + getScriptName(scriptExecution) + "\t" + CONSOLE_FILE;
+            if (compiledScriptCache != null) {
+                // the fork server loads the byte-compiled script before forking, so that later children inherit it
+                request += "\t" + compiledScriptCache.hash(scriptExecution);
+            }
+            server.send(request);
+            var status = fork.status.get();
+            if (scriptExecution.isTimedOut()) {
+                throw new ScriptTimeoutException(timeoutSeconds);
+            }
+            return status;
+        } catch (ExecutionException e) {
+            throw new WorkerException("Fork server stopped during the execution of the script", e.getCause());
+        } finally {
+            if (timeout != null) timeout.cancel(false);
+            forks.remove(requestId);
+            readConsoleFile(scriptExecution, outputTail);
+        }
+    }
+
+    private void readConsoleFile(ScriptExecution scriptExecution, OutputTail outputTail) {
+        var consoleFile = scriptExecution.getWorkspace().resolve(CONSOLE_FILE);
+        if (!Files.exists(consoleFile)) return;
+        try {
+            outputTail.writeFile(consoleFile);
+        } catch (IOException e) {
+            log.warn("Cannot read console output of the script", e);
+        }
+    }
+
+    /**
+     * @return the running fork server, starting a new one when it stopped.
+     */
+    private synchronized ForkServer getForkServer() throws WorkerException {
+        if (forkServer == null || !forkServer.process.isAlive()) {
+            try {
+                forkServer = new ForkServer();
+            } catch (IOException e) {
+                throw new WorkerException("Cannot start fork server", e);
+            }
+        }
+        return forkServer;
+    }
+
+    /**
+     * A script executed by a child of the fork server.
+     */
+    private static class Fork {
+
+        private final ScriptExecution scriptExecution;
+        private final CompletableFuture<Integer> status = new CompletableFuture<>();
+
+        private volatile ForkServer server;
+
+        private Long pid;
+        private boolean killed = false;
+
+        private Fork(ScriptExecution scriptExecution) {
+            this.scriptExecution = scriptExecution;
+        }
+
+        /**
+         * Registers the child with the execution, so that its resource usage is reported in the heartbeats.
+         */
+        private synchronized void started(long pid) {
+            this.pid = pid;
+            var child = ProcessHandle.of(pid);
+            if (child.isPresent()) {
+                scriptExecution.setProcess(child.get());
+                child.get().onExit().thenRun(this::exited);
+            } else {
+                exited();
+            }
+            if (killed) kill();
+        }
+
+        /**
+         * Fails the execution when the child exited without responding.
+         */
+        private void exited() {
+            status.completeOnTimeout(1, EXIT_GRACE_SECONDS, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Kills the child and the processes it started, or the child as soon as it is forked.
+         */
+        private synchronized void kill() {
+            killed = true;
+            if (pid == null) return;
+            ProcessHandle.of(pid).ifPresent(child -> {
+                var descendants = child.descendants().toArray(ProcessHandle[]::new);
+                child.destroyForcibly();
+                for (var descendant : descendants) descendant.destroyForcibly();
+            });
+        }
+
+    }
+
+    private class ForkServer {
+
+        private final Process process;
+        private final BufferedWriter requests;
+
+        private ForkServer() throws IOException {
+            List<String> command = new ArrayList<>(List.of("/usr/bin/Rscript", "--vanilla", serverScript.toString()));
+            command.addAll(rWorkerConfig.getPreloadPackages());
+            var builder = new ProcessBuilder(command);
+            configureProcess(builder);
+            process = builder.start();
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+            var reader = new Thread(this::readResponses, "r-fork-server-" + process.pid());
+            reader.setDaemon(true);
+            reader.start();
+            var errors = new Thread(this::drainErrors, "r-fork-server-stderr-" + process.pid());
+            errors.setDaemon(true);
+            errors.start();
+            log.info("Started fork server {}", process.pid());
+        }
+
+        private synchronized void send(String request) throws WorkerException {
+            try {
+                requests.write(request + "\n");
+                requests.flush();
+            } catch (IOException e) {
+                throw new WorkerException("Cannot send script to fork server", e);
+            }
+        }
+
+        /**
+         * Consumes the stderr of the fork server (e.g. while loading the packages), which is only logged at debug level.
+         */
+        private void drainErrors() {
+            try (var errors = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = errors.readLine()) != null) {
+                    log.debug("[R {}] {}", process.pid(), line);
+                }
+            } catch (IOException e) {
+                // the process exited
+            }
+        }
+
+        private void readResponses() {
+            try (var responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = responses.readLine()) != null) {
+                    if (line.startsWith(STARTED_MARKER)) {
+                        var response = line.substring(STARTED_MARKER.length()).split(" ");
+                        var fork = forks.get(response[0]);
+                        if (fork != null) fork.started(Long.parseLong(response[1]));
+                    } else if (line.startsWith(DONE_MARKER)) {
+                        var response = line.substring(DONE_MARKER.length()).split(" ");
+                        var fork = forks.get(response[0]);
+                        if (fork != null) fork.status.complete(Integer.parseInt(response[1]));
+                    } else {
+                        log.debug("[R {}] {}", process.pid(), line);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot read responses of fork server " + process.pid(), e);
+            }
+
+            // the fork server stopped, the executions it was running will not finish
+            process.destroyForcibly();
+            var stopped = new WorkerException("Fork server " + process.pid() + " stopped");
+            forks.values().stream()
+                .filter(fork -> fork.server == this)
+                .forEach(fork -> fork.status.completeExceptionally(stopped));
+        }
+
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
+import eu.openanalytics.phaedra.scriptengine.config.IoMode;
+import eu.openanalytics.phaedra.scriptengine.exception.ScriptTimeoutException;
+import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
+import eu.openanalytics.phaedra.scriptengine.executor.OutputTail;
+import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link RExecutor} that runs the scripts in a pool of long-lived R processes, so that the startup of
+ * R and the loading of packages is not paid by every execution.
+ * <p>
+ * A pooled process runs pool-server.R, which reads the workspace and script of an execution from its stdin, sources the
+ * script in a new environment and resets the global environment, attached packages and options afterwards. A process
+ * is replaced after a number of executions, or when its R heap grew too large.
+ * <p>
+ * The input and output are always exchanged through files, since stdin and stdout are used by the protocol. The
+ * console output of the scripts is diverted to stderr, which is drained into the {@link OutputTail} of the current
+ * execution. The processes are not placed in a cgroup per execution, their resource usage is reported as from the
+ * start of the execution.
+ */
+@Slf4j
+public class RProcessPoolExecutor extends RExecutor {
+
+    private static final String DONE_MARKER = "PHAEDRA_DONE ";
+
+    private final RWorkerConfig rWorkerConfig;
+    private final int outputTailBytes;
+    private final Path serverScript;
+    private final ConcurrentLinkedDeque<RProcess> idle = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Thread stopping the processes of executions that exceed their timeout.
+     */
+    private final ScheduledExecutorService timeouts;
+
+    public RProcessPoolExecutor(ExternalProcessConfig config, RWorkerConfig rWorkerConfig, MeterRegistry meterRegistry) {
+        super(config, rWorkerConfig, meterRegistry);
+        this.rWorkerConfig = rWorkerConfig;
+        this.outputTailBytes = config.getOutputTailBytes();
+        try {
+            serverScript = Files.createTempFile("phaedra2-pool-server", ".R");
+            serverScript.toFile().deleteOnExit();
+            Files.writeString(serverScript, getServerScript("/pool-server.R"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create the script of the pooled R processes", e);
+        }
+        var threadFactory = new CustomizableThreadFactory("r-pool-timeout-");
+        threadFactory.setDaemon(true);
+        timeouts = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        for (int i = 0; i < rWorkerConfig.getPoolSize(); i++) {
+            try {
+                idle.push(new RProcess());
+            } catch (IOException e) {
+                log.warn("Cannot start pooled R process", e);
+            }
+        }
+        log.info("Started pool of {} R processes", idle.size());
+    }
+
+    @Override
+    protected IoMode getIoMode() {
+        return IoMode.FILE;
+    }
+
+    @Override
+    protected int executeScript(ScriptExecution scriptExecution) throws WorkerException, InterruptedException {
+        var rProcess = acquire();
+        setReusedProcess(scriptExecution, rProcess.process.toHandle());
+        var outputTail = new OutputTail(outputTailBytes);
+        scriptExecution.setOutputTail(outputTail);
+        rProcess.outputTail = outputTail;
+
+        var timeoutSeconds = getTimeoutSeconds(scriptExecution);
+        var timeout = timeoutSeconds == null ? null : timeouts.schedule(() -> {
+            scriptExecution.setTimedOut(true);
+            destroyProcessTree(scriptExecution, rProcess.process);
+        }, timeoutSeconds, TimeUnit.SECONDS);
+
+        var reusable = false;
+        try {
+            var status = rProcess.execute(scriptExecution.getWorkspace(), getScriptName(scriptExecution));
+            if (scriptExecution.isTimedOut()) {
+                throw new ScriptTimeoutException(timeoutSeconds);
+            }
+            if (status == null) {
+                // the script stopped the process (e.g. by calling quit())
+                return rProcess.process.waitFor();
+            }
+            reusable = rProcess.executions < rWorkerConfig.getMaxExecutions()
+                && (rWorkerConfig.getMaxMemoryBytes() == null || rProcess.memoryBytes <= rWorkerConfig.getMaxMemoryBytes());
+            return status;
+        } finally {
+            if (timeout != null) timeout.cancel(false);
+            rProcess.outputTail = null;
+            if (reusable) {
+                idle.push(rProcess);
+            } else {
+                rProcess.stop();
+            }
+        }
+    }
+
+    /**
+     * @return an idle process, or a new process when all processes are busy.
+     */
+    private RProcess acquire() throws WorkerException {
+        var rProcess = idle.poll();
+        while (rProcess != null && !rProcess.process.isAlive()) {
+            rProcess = idle.poll();
+        }
+        if (rProcess != null) return rProcess;
+        try {
+            return new RProcess();
+        } catch (IOException e) {
+            throw new WorkerException("Cannot start pooled R process", e);
+        }
+    }
+
+    private class RProcess {
+
+        private final Process process;
+        private final BufferedWriter requests;
+        private final BufferedReader responses;
+
+        private int executions = 0;
+        private long memoryBytes = 0;
+
+        /**
+         * The tail of the current execution, or null while the process is idle.
+         */
+        private volatile OutputTail outputTail;
+
+        private RProcess() throws IOException {
+            List<String> command = new ArrayList<>(List.of("/usr/bin/Rscript", "--vanilla", serverScript.toString()));
+            command.addAll(rWorkerConfig.getPreloadPackages());
+            var builder = new ProcessBuilder(command);
+            configureProcess(builder);
+            process = builder.start();
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+            var errors = new Thread(this::drainErrors, "r-pool-stderr-" + process.pid());
+            errors.setDaemon(true);
+            errors.start();
+        }
+
+        /**
+         * Consumes stderr until the process exits, so that it never blocks on a full pipe. Output written while the
+         * process is idle (e.g. while loading the packages) is only logged at debug level.
+         */
+        private void drainErrors() {
+            var chunk = new byte[8192];
+            try (var stream = process.getErrorStream()) {
+                int read;
+                while ((read = stream.read(chunk)) != -1) {
+                    var tail = outputTail;
+                    if (tail != null) tail.write(chunk, read);
+                    else log.debug("[R {}] {}", process.pid(), new String(chunk, 0, read, StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // the process exited
+            }
+        }
+
+        /**
+         * @return the status of the script (0 when it succeeded), or null when the process stopped during the execution.
+         */
+        private Integer execute(Path workspace, String scriptName) throws WorkerException {
+            try {
+                requests.write(workspace + "\t" + scriptName + "\n");
+                requests.flush();
+                String line;
+                while ((line = responses.readLine()) != null) {
+                    if (line.startsWith(DONE_MARKER)) {
+                        var response = line.substring(DONE_MARKER.length()).split(" ");
+                        executions++;
+                        memoryBytes = Long.parseLong(response[1]);
+                        return Integer.parseInt(response[0]);
+                    }
+                    var tail = outputTail;
+                    if (tail != null) {
+                        var bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                        tail.write(bytes, bytes.length);
+                    }
+                }
+                return null;
+            } catch (IOException | RuntimeException e) {
+                if (!process.isAlive()) return null;
+                throw new WorkerException("Cannot communicate with pooled R process", e);
+            }
+        }
+
+        /**
+         * Closes stdin, which stops the server loop, and kills the process if it is still busy.
+         */
+        private void stop() {
+            try {
+                requests.close();
+            } catch (IOException e) {
+                // the process already exited
+            }
+            process.onExit().completeOnTimeout(null, 1, TimeUnit.SECONDS).thenRun(process::destroyForcibly);
+        }
+
+    }
+
+}
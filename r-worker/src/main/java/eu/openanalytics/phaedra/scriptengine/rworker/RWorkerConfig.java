@@ -0,0 +1,189 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "phaedra2.script-engine-worker.r")
+public class RWorkerConfig {
+
+    private RExecutorMode mode = RExecutorMode.RSCRIPT;
+
+    private Integer poolSize = 1;
+
+    private Integer maxExecutions = 100;
+
+    private Long maxMemoryBytes;
+
+    private List<String> preloadPackages = new ArrayList<>();
+
+    private Boolean compileScripts = false;
+
+    private String compiledScriptCache;
+
+    private Integer compiledScriptCacheMaxFiles = 1000;
+
+    private Integer compiledScriptMemoryMaxScripts = 100;
+
+    @PostConstruct
+    public void init() {
+        if (mode == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.mode not set");
+        }
+        if (poolSize == null || poolSize < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.pool-size may not be negative");
+        }
+        if (maxExecutions == null || maxExecutions < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.max-executions must be at least 1");
+        }
+        if (maxMemoryBytes != null && maxMemoryBytes < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.max-memory-bytes must be at least 1");
+        }
+        if (compiledScriptCache != null && !new File(compiledScriptCache).isDirectory()) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.compiled-script-cache does not exists or is not a directory");
+        }
+        if (compiledScriptCacheMaxFiles == null || compiledScriptCacheMaxFiles < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.compiled-script-cache-max-files must be at least 1");
+        }
+        if (compiledScriptMemoryMaxScripts == null || compiledScriptMemoryMaxScripts < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.compiled-script-memory-max-scripts must be at least 1");
+        }
+        if (Boolean.TRUE.equals(compileScripts) && mode != RExecutorMode.POOL && compiledScriptCache == null) {
+            // only pooled processes keep the scripts they compiled in memory, without the cache every script is compiled again
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.r.compile-scripts requires phaedra2.script-engine-worker.r.compiled-script-cache unless the mode is pool");
+        }
+    }
+
+    /**
+     * @return how scripts are executed.
+     */
+    public RExecutorMode getMode() {
+        return mode;
+    }
+
+    public void setMode(RExecutorMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return the number of R processes started up-front in {@link RExecutorMode#POOL} mode. More processes are
+     * started when all of them are busy, up to the number of execution slots.
+     */
+    public Integer getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(Integer poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @return the number of executions after which a pooled R process is replaced by a new one.
+     */
+    public Integer getMaxExecutions() {
+        return maxExecutions;
+    }
+
+    public void setMaxExecutions(Integer maxExecutions) {
+        this.maxExecutions = maxExecutions;
+    }
+
+    /**
+     * @return the size of the R heap above which a pooled R process is replaced after its execution, or null when
+     * unlimited.
+     */
+    public Long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public void setMaxMemoryBytes(Long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * @return the packages (e.g. from the user package library) that are loaded once by every pooled R process or by
+     * the fork server, instead of by every script.
+     */
+    public List<String> getPreloadPackages() {
+        return preloadPackages;
+    }
+
+    public void setPreloadPackages(List<String> preloadPackages) {
+        this.preloadPackages = preloadPackages;
+    }
+
+    /**
+     * @return whether scripts are byte-compiled once and re-used by content hash, instead of being parsed and
+     * interpreted by every execution, see {@link CompiledScriptCache}. Unless the mode is {@link RExecutorMode#POOL},
+     * this requires {@link #getCompiledScriptCache()}, since a new process or forked child does not keep the scripts it
+     * compiled.
+     */
+    public Boolean getCompileScripts() {
+        return compileScripts;
+    }
+
+    public void setCompileScripts(Boolean compileScripts) {
+        this.compileScripts = compileScripts;
+    }
+
+    /**
+     * @return the directory in which byte-compiled scripts are kept, or null to only keep them in the memory of warm
+     * R processes.
+     */
+    public String getCompiledScriptCache() {
+        return compiledScriptCache;
+    }
+
+    public void setCompiledScriptCache(String compiledScriptCache) {
+        this.compiledScriptCache = compiledScriptCache;
+    }
+
+    /**
+     * @return the maximum number of byte-compiled scripts kept on disk, the least recently compiled are removed first.
+     */
+    public Integer getCompiledScriptCacheMaxFiles() {
+        return compiledScriptCacheMaxFiles;
+    }
+
+    public void setCompiledScriptCacheMaxFiles(Integer compiledScriptCacheMaxFiles) {
+        this.compiledScriptCacheMaxFiles = compiledScriptCacheMaxFiles;
+    }
+
+    /**
+     * @return the maximum number of byte-compiled scripts kept in the memory of a pooled R process or of the fork
+     * server, the least recently used are removed first.
+     */
+    public Integer getCompiledScriptMemoryMaxScripts() {
+        return compiledScriptMemoryMaxScripts;
+    }
+
+    public void setCompiledScriptMemoryMaxScripts(Integer compiledScriptMemoryMaxScripts) {
+        this.compiledScriptMemoryMaxScripts = compiledScriptMemoryMaxScripts;
+    }
+
+}
@@ -23,6 +23,7 @@ package eu.openanalytics.phaedra.scriptengine.rworker;
 import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
 import eu.openanalytics.phaedra.scriptengine.executor.IExecutorRegistration;
 import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -30,7 +31,7 @@ import org.springframework.context.annotation.Configuration;
 public class RWorkerConfiguration {
 
     @Bean
-    public IExecutorRegistration rExecutorRegistration() {
+    public IExecutorRegistration rExecutorRegistration(RWorkerConfig rWorkerConfig, MeterRegistry meterRegistry) {
         return new IExecutorRegistration() {
             @Override
             public String getLanguage() {
@@ -39,11 +40,21 @@ public class RWorkerConfiguration {
 
             @Override
             public IExecutor createExecutor() {
-                return new RExecutor(externalProcessConfig());
+                switch (rWorkerConfig.getMode()) {
+                    case POOL:
+                        return new RProcessPoolExecutor(externalProcessConfig(), rWorkerConfig, meterRegistry);
+                    case FORK_SERVER:
+                        return new RForkServerExecutor(externalProcessConfig(), rWorkerConfig, meterRegistry);
+                    default:
+                        return new RExecutor(externalProcessConfig(), rWorkerConfig, meterRegistry);
+                }
             }
 
+            /**
+             * Pooled R processes and forked children each run one script at a time, therefore executions can use all slots.
+             */
             public Boolean allowConcurrency() {
-                return false;
+                return rWorkerConfig.getMode() != RExecutorMode.RSCRIPT;
             }
         };
     }
@@ -0,0 +1,94 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.rworker;
+
+import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat;
+import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Compares the duration of executions exchanging a per-cell dataset as JSON and as binary columns.
+ * Requires R, therefore disabled like {@link RExecutorIntegrationTest}.
+ */
+@Disabled
+public class ExchangeFormatBenchmarkTest {
+
+    private static final int CELLS = 1_000_000;
+    private static final int RUNS = 5;
+
+    @Test
+    public void compareExchangeFormats() throws Exception {
+        var config = new ExternalProcessConfig();
+        config.setWorkspace("/tmp/");
+        config.setCleanWorkspace(true);
+        config.setMaxOutputBytes(Integer.MAX_VALUE - 8L);
+        var executor = new RExecutor(config, new SimpleMeterRegistry());
+
+        var random = new Random(42);
+        var input = new StringBuilder("{\"wellNr\": [");
+        for (int i = 0; i < CELLS; i++) {
+            input.append(i > 0 ? "," : "").append(i % 384 + 1);
+        }
+        input.append("], \"intensity\": [");
+        for (int i = 0; i < CELLS; i++) {
+            input.append(i > 0 ? "," : "").append(random.nextDouble() * 1000);
+        }
+        input.append("]}");
+        var script = "output <- list(mean = as.numeric(tapply(input$intensity, input$wellNr, mean)), normalized = input$intensity / max(input$intensity))";
+
+        String jsonOutput = null;
+        String binaryOutput = null;
+        for (var exchangeFormat : ExchangeFormat.values()) {
+            long total = 0;
+            for (int run = 0; run < RUNS; run++) {
+                var start = System.nanoTime();
+                var output = executor.execute(new ScriptExecution(ScriptExecutionInputDTO.builder()
+                    .id("benchmark-" + run).script(script).input(input.toString()).exchangeFormat(exchangeFormat).build()));
+                total += System.nanoTime() - start;
+                Assertions.assertEquals(ResponseStatusCode.SUCCESS, output.getStatusCode());
+                if (exchangeFormat == ExchangeFormat.JSON) jsonOutput = output.getOutput();
+                else binaryOutput = output.getOutput();
+            }
+            System.out.printf("%s: %d ms per execution of %d cells%n", exchangeFormat, total / RUNS / 1_000_000, CELLS);
+        }
+
+        // the formatting of the numbers differs, their values may not
+        var objectMapper = new ObjectMapper();
+        var expected = objectMapper.readTree(jsonOutput).get("output");
+        var actual = objectMapper.readTree(binaryOutput).get("output");
+        for (var column : new String[]{"mean", "normalized"}) {
+            Assertions.assertEquals(expected.get(column).size(), actual.get(column).size());
+            for (int i = 0; i < expected.get(column).size(); i++) {
+                Assertions.assertEquals(expected.get(column).get(i).doubleValue(), actual.get(column).get(i).doubleValue(), 1e-9);
+            }
+        }
+    }
+
+}
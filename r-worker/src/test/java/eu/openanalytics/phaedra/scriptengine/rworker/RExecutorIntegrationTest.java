@@ -24,6 +24,7 @@ import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
 import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -40,7 +41,7 @@ public class RExecutorIntegrationTest {
         config.setWorkspace("/tmp/");
         config.setCleanWorkspace(true);
 
-        var myExecutor = new RExecutor(config);
+        var myExecutor = new RExecutor(config, new SimpleMeterRegistry());
 
         var scriptExecution = new ScriptExecution(ScriptExecutionInputDTO.builder()
         		.id("myId").script("output <- input$a + input$b").input("{\"a\": 1, \"b\":2}").build());
@@ -60,7 +61,7 @@ public class RExecutorIntegrationTest {
         config.setWorkspace("/tmp/");
         config.setCleanWorkspace(false);
 
-        var myExecutor = new RExecutor(config);
+        var myExecutor = new RExecutor(config, new SimpleMeterRegistry());
 
         var scriptExecution = new ScriptExecution(ScriptExecutionInputDTO.builder()
         		.id("myId").script("output <- input$a + input$b").input("{\"a\": 1, \"b\":2}").build());
@@ -75,7 +76,8 @@ public class RExecutorIntegrationTest {
 
         Assertions.assertEquals("{\"a\": 1, \"b\":2}", Files.readString(scriptExecution.getWorkspace().resolve("input.json")));
         Assertions.assertEquals(
-            "fh <- file(\"input.json\")\n" +
+            "reportProgress <- function(progress, message = \"\") writeLines(paste(progress, message), \"progress.txt\")\n" +
+                "fh <- file(\"input.json\")\n" +
                 "input <- rjson::fromJSON(file=\"input.json\", simplify=TRUE)\n" +
                 "close(fh)\n" +
                 "output <- input$a + input$b\n" +
@@ -67,6 +67,8 @@ public class WatchdogApplication {
     public final static String OUTPUT_QUEUE_NAME = "watchdog_output";
     public final static String HEARTBEAT_EXCHANGE = "scriptengine_heartbeat";
     public final static String HEARTBEAT_QUEUE_NAME = "watchdog_heartbeat";
+    public final static String HEARTBEAT_BATCH_QUEUE_NAME = "watchdog_heartbeat_batch";
+    public final static String CAPACITY_QUEUE_NAME = "watchdog_capacity";
 
     @PostConstruct
     public void init() {
@@ -86,13 +88,19 @@ public class WatchdogApplication {
         amqpAdmin.declareExchange(new DirectExchange(HEARTBEAT_EXCHANGE, true, false));
         amqpAdmin.declareQueue(new Queue(HEARTBEAT_QUEUE_NAME, true, false, false));
         amqpAdmin.declareBinding(new Binding(HEARTBEAT_QUEUE_NAME, Binding.DestinationType.QUEUE, HEARTBEAT_EXCHANGE, "heartbeat", Map.of()));
+        amqpAdmin.declareQueue(new Queue(HEARTBEAT_BATCH_QUEUE_NAME, true, false, false));
+        amqpAdmin.declareBinding(new Binding(HEARTBEAT_BATCH_QUEUE_NAME, Binding.DestinationType.QUEUE, HEARTBEAT_EXCHANGE, "heartbeat-batch", Map.of()));
+
+        // capacity queue, only the latest capacity of each worker is relevant, older messages expire like the capacity itself
+        amqpAdmin.declareQueue(new Queue(CAPACITY_QUEUE_NAME, false, false, false, Map.of("x-message-ttl", watchDogConfig.getCapacityTtl() * 1000)));
+        amqpAdmin.declareBinding(new Binding(CAPACITY_QUEUE_NAME, Binding.DestinationType.QUEUE, HEARTBEAT_EXCHANGE, "capacity", Map.of()));
     }
 
     @Bean
     public DirectMessageListenerContainer messageListenerContainer(ConnectionFactory connectionFactory, MessageListenerService messageListenerService) {
         var container = new DirectMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
-        container.addQueueNames(INPUT_QUEUE_NAME, OUTPUT_QUEUE_NAME, HEARTBEAT_QUEUE_NAME);
+        container.addQueueNames(INPUT_QUEUE_NAME, OUTPUT_QUEUE_NAME, HEARTBEAT_QUEUE_NAME, HEARTBEAT_BATCH_QUEUE_NAME, CAPACITY_QUEUE_NAME);
         container.setMessageListener(messageListenerService);
         container.setPrefetchCount(250);
         container.setConsumersPerQueue(8);
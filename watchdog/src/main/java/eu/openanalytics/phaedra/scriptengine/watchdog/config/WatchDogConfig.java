@@ -32,6 +32,8 @@ public class WatchDogConfig {
 
     private List<Target> targets = new ArrayList<>();
 
+    private int capacityTtl = 60;
+
     /**
      * @return the prefix of the topic used in output messages on the output exchange.
      */
@@ -39,6 +41,19 @@ public class WatchDogConfig {
         return "scriptengine.output.";
     }
 
+    /**
+     * @return how long (in seconds) the capacity advertised by a worker is taken into account, capacity messages that
+     * are not consumed within this time expire. Since the queue is not durable, a changed value applies once the broker
+     * restarted or the queue was deleted.
+     */
+    public int getCapacityTtl() {
+        return capacityTtl;
+    }
+
+    public void setCapacityTtl(int capacityTtl) {
+        this.capacityTtl = capacityTtl;
+    }
+
     public List<Target> getTargets() {
         return targets;
     }
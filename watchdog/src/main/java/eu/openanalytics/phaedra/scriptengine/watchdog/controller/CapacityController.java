@@ -0,0 +1,47 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.watchdog.controller;
+
+import eu.openanalytics.phaedra.scriptengine.watchdog.model.ClusterCapacity;
+import eu.openanalytics.phaedra.scriptengine.watchdog.service.WorkerCapacityService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Exposes the free capacity of the cluster, e.g. for autoscaling and admission decisions.
+ */
+@RestController
+public class CapacityController {
+
+    private final WorkerCapacityService workerCapacityService;
+
+    public CapacityController(WorkerCapacityService workerCapacityService) {
+        this.workerCapacityService = workerCapacityService;
+    }
+
+    @GetMapping("/capacity")
+    public List<ClusterCapacity> getClusterCapacity() {
+        return workerCapacityService.getClusterCapacity();
+    }
+
+}
@@ -22,6 +22,7 @@ package eu.openanalytics.phaedra.scriptengine.watchdog.repository;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -32,6 +33,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatBatchDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
@@ -71,6 +73,25 @@ public class ScriptExecutionRepository {
         }
     }
 
+    /**
+     * Updates the heartbeat of all ScriptExecutions in the batch using a single statement.
+     *
+     * @param heartbeatBatchDTO
+     */
+    public void updateScriptExecutions(HeartbeatBatchDTO heartbeatBatchDTO) {
+        var ids = heartbeatBatchDTO.getScriptExecutionIds();
+        if (ids.isEmpty()) return;
+
+        var lastHeartbeat = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(con -> {
+            var stmt = con.prepareStatement("INSERT INTO script_execution (id, last_heartbeat) SELECT unnest(?), ? " +
+                "ON CONFLICT (id) DO UPDATE SET last_heartbeat = excluded.last_heartbeat");
+            stmt.setArray(1, con.createArrayOf("varchar", ids.toArray()));
+            stmt.setTimestamp(2, lastHeartbeat);
+            return stmt;
+        });
+    }
+
     /**
      * Stops the heartbeat of the ScriptExecution.
      *
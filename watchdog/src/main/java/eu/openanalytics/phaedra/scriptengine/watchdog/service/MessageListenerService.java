@@ -21,9 +21,11 @@
 package eu.openanalytics.phaedra.scriptengine.watchdog.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatBatchDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.WorkerCapacityDTO;
 import eu.openanalytics.phaedra.scriptengine.watchdog.repository.ScriptExecutionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,8 @@ import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageListener;
 import org.springframework.stereotype.Service;
 
+import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.CAPACITY_QUEUE_NAME;
+import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.HEARTBEAT_BATCH_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.HEARTBEAT_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.INPUT_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.OUTPUT_QUEUE_NAME;
@@ -41,9 +45,11 @@ public class MessageListenerService implements MessageListener {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ScriptExecutionRepository scriptExecutionRepository;
+    private final WorkerCapacityService workerCapacityService;
 
-    public MessageListenerService(ScriptExecutionRepository scriptExecutionRepository) {
+    public MessageListenerService(ScriptExecutionRepository scriptExecutionRepository, WorkerCapacityService workerCapacityService) {
         this.scriptExecutionRepository = scriptExecutionRepository;
+        this.workerCapacityService = workerCapacityService;
     }
 
     @Override
@@ -63,6 +69,14 @@ public class MessageListenerService implements MessageListener {
                     var heartbeat = objectMapper.readValue(message.getBody(), HeartbeatDTO.class);
                     onHeartbeat(heartbeat);
                 }
+                case HEARTBEAT_BATCH_QUEUE_NAME -> {
+                    var heartbeatBatch = objectMapper.readValue(message.getBody(), HeartbeatBatchDTO.class);
+                    onHeartbeatBatch(heartbeatBatch);
+                }
+                case CAPACITY_QUEUE_NAME -> {
+                    var capacity = objectMapper.readValue(message.getBody(), WorkerCapacityDTO.class);
+                    workerCapacityService.onCapacity(capacity);
+                }
             }
         } catch (Throwable e) {
             e.printStackTrace();
@@ -74,6 +88,11 @@ public class MessageListenerService implements MessageListener {
         scriptExecutionRepository.updateScriptExecution(heartbeat);
     }
 
+    private void onHeartbeatBatch(HeartbeatBatchDTO heartbeatBatch) {
+        logger.debug("Heartbeat:  {} executions of worker {}", heartbeatBatch.getScriptExecutionIds().size(), heartbeatBatch.getWorkerId());
+        scriptExecutionRepository.updateScriptExecutions(heartbeatBatch);
+    }
+
     public void onInput(ScriptExecutionInputDTO input, String routingKey) {
         logger.debug("Input:      {}", input.getId());
         scriptExecutionRepository.createScriptExecution(input, routingKey);
@@ -0,0 +1,93 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.watchdog.service;
+
+import eu.openanalytics.phaedra.scriptengine.dto.WorkerCapacityDTO;
+import eu.openanalytics.phaedra.scriptengine.watchdog.config.WatchDogConfig;
+import eu.openanalytics.phaedra.scriptengine.watchdog.model.ClusterCapacity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the latest capacity advertised by every worker and aggregates it per language and lane.
+ * Workers that did not advertise their capacity within the configured TTL are considered gone.
+ */
+@Service
+public class WorkerCapacityService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Map<String, WorkerCapacityDTO> capacityByWorker = new ConcurrentHashMap<>();
+    private final WatchDogConfig watchDogConfig;
+
+    public WorkerCapacityService(WatchDogConfig watchDogConfig) {
+        this.watchDogConfig = watchDogConfig;
+    }
+
+    public void onCapacity(WorkerCapacityDTO capacity) {
+        if (capacity.getWorkerId() == null || capacity.getTimestamp() == null) return;
+        logger.debug("Capacity:   {} free of {} slots on worker {}", capacity.getFreeSlots(), capacity.getTotalSlots(), capacity.getWorkerId());
+        // records may arrive out of order, keep the most recent one
+        capacityByWorker.merge(capacity.getWorkerId(), capacity, (current, received) -> received.getTimestamp() >= current.getTimestamp() ? received : current);
+    }
+
+    /**
+     * @return the capacity of the cluster per language and lane, based on the workers that are still alive.
+     */
+    public List<ClusterCapacity> getClusterCapacity() {
+        var notBefore = System.currentTimeMillis() - watchDogConfig.getCapacityTtl() * 1000L;
+        capacityByWorker.values().removeIf(capacity -> capacity.getTimestamp() < notBefore);
+
+        // language -> lane -> [workers, total slots, free slots, queue depth]
+        var aggregated = new TreeMap<String, Map<String, int[]>>();
+        for (var capacity : capacityByWorker.values()) {
+            if (capacity.getLanes() == null) continue;
+            var language = capacity.getLanguage() != null ? capacity.getLanguage().toLowerCase() : "unknown";
+            for (var lane : capacity.getLanes().entrySet()) {
+                var totals = aggregated.computeIfAbsent(language, l -> new TreeMap<>()).computeIfAbsent(lane.getKey(), l -> new int[4]);
+                totals[0] += 1;
+                totals[1] += valueOf(lane.getValue().getSlots());
+                totals[2] += valueOf(lane.getValue().getFreeSlots());
+                totals[3] += valueOf(lane.getValue().getQueueDepth());
+            }
+        }
+
+        var result = new ArrayList<ClusterCapacity>();
+        for (var language : aggregated.entrySet()) {
+            for (var lane : language.getValue().entrySet()) {
+                var totals = lane.getValue();
+                result.add(new ClusterCapacity(language.getKey(), lane.getKey(), totals[0], totals[1], totals[2], totals[3]));
+            }
+        }
+        return result;
+    }
+
+    private static int valueOf(Integer value) {
+        return value != null ? value : 0;
+    }
+
+}
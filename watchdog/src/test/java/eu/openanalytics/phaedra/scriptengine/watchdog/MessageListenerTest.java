@@ -22,18 +22,24 @@ package eu.openanalytics.phaedra.scriptengine.watchdog;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatBatchDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.WorkerCapacityDTO;
 import eu.openanalytics.phaedra.scriptengine.watchdog.repository.ScriptExecutionRepository;
 import eu.openanalytics.phaedra.scriptengine.watchdog.service.MessageListenerService;
+import eu.openanalytics.phaedra.scriptengine.watchdog.service.WorkerCapacityService;
 import org.junit.jupiter.api.Test;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
+import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.CAPACITY_QUEUE_NAME;
+import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.HEARTBEAT_BATCH_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.HEARTBEAT_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.INPUT_QUEUE_NAME;
 import static eu.openanalytics.phaedra.scriptengine.watchdog.WatchdogApplication.OUTPUT_QUEUE_NAME;
@@ -48,7 +54,7 @@ public class MessageListenerTest {
     @Test
     public void onInputMessage() throws JsonProcessingException {
         var repository = mock(ScriptExecutionRepository.class);
-        var listener = new MessageListenerService(repository);
+        var listener = new MessageListenerService(repository, mock(WorkerCapacityService.class));
 
         var msgProps = new MessageProperties();
         msgProps.setConsumerQueue(INPUT_QUEUE_NAME);
@@ -66,7 +72,7 @@ public class MessageListenerTest {
     @Test
     public void onOutputMessage() throws JsonProcessingException {
         var repository = mock(ScriptExecutionRepository.class);
-        var listener = new MessageListenerService(repository);
+        var listener = new MessageListenerService(repository, mock(WorkerCapacityService.class));
 
         var msgProps = new MessageProperties();
         msgProps.setConsumerQueue(OUTPUT_QUEUE_NAME);
@@ -83,7 +89,7 @@ public class MessageListenerTest {
     @Test
     public void onHeartbeatMessage() throws JsonProcessingException {
         var repository = mock(ScriptExecutionRepository.class);
-        var listener = new MessageListenerService(repository);
+        var listener = new MessageListenerService(repository, mock(WorkerCapacityService.class));
 
         var msgProps = new MessageProperties();
         msgProps.setConsumerQueue(HEARTBEAT_QUEUE_NAME);
@@ -97,10 +103,45 @@ public class MessageListenerTest {
         verifyNoMoreInteractions(repository);
     }
 
+    @Test
+    public void onHeartbeatBatchMessage() throws JsonProcessingException {
+        var repository = mock(ScriptExecutionRepository.class);
+        var listener = new MessageListenerService(repository, mock(WorkerCapacityService.class));
+
+        var msgProps = new MessageProperties();
+        msgProps.setConsumerQueue(HEARTBEAT_BATCH_QUEUE_NAME);
+
+        var heartbeatBatch = new HeartbeatBatchDTO("worker1", List.of("myId1", "myId2"));
+        var input1 = new Message(objectMapper.writeValueAsBytes(heartbeatBatch), msgProps);
+
+        listener.onMessage(input1);
+
+        verify(repository).updateScriptExecutions(heartbeatBatch);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void onCapacityMessage() throws JsonProcessingException {
+        var repository = mock(ScriptExecutionRepository.class);
+        var workerCapacityService = mock(WorkerCapacityService.class);
+        var listener = new MessageListenerService(repository, workerCapacityService);
+
+        var msgProps = new MessageProperties();
+        msgProps.setConsumerQueue(CAPACITY_QUEUE_NAME);
+
+        var capacity = WorkerCapacityDTO.builder().workerId("worker1").language("R").totalSlots(4).freeSlots(2).build();
+        var input1 = new Message(objectMapper.writeValueAsBytes(capacity), msgProps);
+
+        listener.onMessage(input1);
+
+        verify(workerCapacityService).onCapacity(capacity);
+        verifyNoMoreInteractions(repository, workerCapacityService);
+    }
+
     @Test
     public void invalidMessage() {
         var repository = mock(ScriptExecutionRepository.class);
-        var listener = new MessageListenerService(repository);
+        var listener = new MessageListenerService(repository, mock(WorkerCapacityService.class));
 
         var msgProps = new MessageProperties();
         msgProps.setConsumerQueue(HEARTBEAT_QUEUE_NAME);
@@ -0,0 +1,82 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.watchdog;
+
+import eu.openanalytics.phaedra.scriptengine.dto.LaneCapacityDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.WorkerCapacityDTO;
+import eu.openanalytics.phaedra.scriptengine.watchdog.config.WatchDogConfig;
+import eu.openanalytics.phaedra.scriptengine.watchdog.model.ClusterCapacity;
+import eu.openanalytics.phaedra.scriptengine.watchdog.service.WorkerCapacityService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class WorkerCapacityServiceTest {
+
+    @Test
+    public void aggregatesPerLanguageAndLane() {
+        var service = new WorkerCapacityService(new WatchDogConfig());
+        var now = System.currentTimeMillis();
+
+        service.onCapacity(capacity("worker1", "R", now, Map.of("default", lane(4, 1, 0), "fast-lane", lane(2, 1, 3))));
+        service.onCapacity(capacity("worker2", "R", now, Map.of("default", lane(4, 4, 0))));
+        service.onCapacity(capacity("worker3", "JavaStat", now, Map.of("default", lane(8, 8, 0))));
+
+        Assertions.assertEquals(List.of(
+            new ClusterCapacity("javastat", "default", 1, 8, 8, 0),
+            new ClusterCapacity("r", "default", 2, 8, 5, 0),
+            new ClusterCapacity("r", "fast-lane", 1, 2, 1, 3)
+        ), service.getClusterCapacity());
+    }
+
+    @Test
+    public void keepsLatestCapacityOfWorker() {
+        var service = new WorkerCapacityService(new WatchDogConfig());
+        var now = System.currentTimeMillis();
+
+        service.onCapacity(capacity("worker1", "R", now, Map.of("default", lane(4, 1, 0))));
+        service.onCapacity(capacity("worker1", "R", now - 1000, Map.of("default", lane(4, 4, 0))));
+
+        Assertions.assertEquals(List.of(new ClusterCapacity("r", "default", 1, 4, 1, 0)), service.getClusterCapacity());
+    }
+
+    @Test
+    public void ignoresExpiredCapacity() {
+        var config = new WatchDogConfig();
+        config.setCapacityTtl(10);
+        var service = new WorkerCapacityService(config);
+
+        service.onCapacity(capacity("worker1", "R", System.currentTimeMillis() - 11000, Map.of("default", lane(4, 4, 0))));
+
+        Assertions.assertEquals(List.of(), service.getClusterCapacity());
+    }
+
+    private WorkerCapacityDTO capacity(String workerId, String language, long timestamp, Map<String, LaneCapacityDTO> lanes) {
+        return WorkerCapacityDTO.builder().workerId(workerId).language(language).timestamp(timestamp).lanes(lanes).build();
+    }
+
+    private LaneCapacityDTO lane(int slots, int freeSlots, int queueDepth) {
+        return LaneCapacityDTO.builder().slots(slots).freeSlots(freeSlots).queueDepth(queueDepth).build();
+    }
+
+}
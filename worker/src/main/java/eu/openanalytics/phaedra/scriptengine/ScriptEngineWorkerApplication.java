@@ -31,11 +31,19 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.config.ExecutionConfig;
+import eu.openanalytics.phaedra.scriptengine.config.ResultCacheConfig;
+import eu.openanalytics.phaedra.scriptengine.config.ThreadMode;
+import eu.openanalytics.phaedra.scriptengine.executor.CachingExecutor;
 import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
 import eu.openanalytics.phaedra.scriptengine.executor.IExecutorRegistration;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @EnableAsync
 @SpringBootApplication(exclude = {DataSourceAutoConfiguration.class})
@@ -70,12 +78,19 @@ public class ScriptEngineWorkerApplication {
     }
 
     @Bean
-    public IExecutor scriptExecutor(IExecutorRegistration executorRegistration) {
-        return executorRegistration.createExecutor();
+    public IExecutor scriptExecutor(IExecutorRegistration executorRegistration, ResultCacheConfig resultCacheConfig, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        var executor = executorRegistration.createExecutor();
+        if (resultCacheConfig.getEnabled()) {
+            return new CachingExecutor(executor, resultCacheConfig, getClass().getPackage().getImplementationVersion(), objectMapper, meterRegistry);
+        }
+        return executor;
     }
 
     @Bean
-    public Executor taskExecutor() {
+    public Executor taskExecutor(ExecutionConfig executionConfig) {
+        if (executionConfig.getThreadMode() == ThreadMode.VIRTUAL) {
+            return new ConcurrentTaskExecutor(executionConfig.getThreadMode().newExecutorService("task-", 0));
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(2);
         executor.setMaxPoolSize(4);
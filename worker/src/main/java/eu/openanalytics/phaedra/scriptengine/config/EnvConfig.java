@@ -24,6 +24,9 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Contains all configuration related to the Environment of this worker.
@@ -35,6 +38,12 @@ public class EnvConfig {
 
     private String language;
     private Integer heartbeatInterval;
+    private Integer capacityInterval = 10;
+    private Boolean batchHeartbeats = false;
+    private String workerId;
+    private String version;
+    private String poolName;
+    private Map<String, Integer> lanes = new LinkedHashMap<>();
 
     @PostConstruct
     public void init() {
@@ -47,6 +56,23 @@ public class EnvConfig {
         if (heartbeatInterval < 1) {
             throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.env.heartbeatInterval must be greater than 1");
         }
+        if (capacityInterval == null || capacityInterval < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.env.capacity-interval may not be negative");
+        }
+        if (batchHeartbeats == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.env.batch-heartbeats not set");
+        }
+        if (workerId == null) {
+            workerId = System.getenv().getOrDefault("HOSTNAME", UUID.randomUUID().toString());
+        }
+        if (lanes.isEmpty()) {
+            lanes.put(KafkaConfig.DEFAULT_LANE, 1);
+        }
+        for (var lane : lanes.entrySet()) {
+            if (lane.getValue() == null || lane.getValue() < 1) {
+                throw new IllegalArgumentException(String.format("Incorrect configuration detected: phaedra2.script-engine-worker.env.lanes.%s must be at least 1", lane.getKey()));
+            }
+        }
     }
 
     public String getLanguage() {
@@ -65,4 +91,80 @@ public class EnvConfig {
         return heartbeatInterval;
     }
 
+    /**
+     * @return the interval in seconds at which the worker advertises its capacity, 0 to disable.
+     */
+    public Integer getCapacityInterval() {
+        return capacityInterval;
+    }
+
+    public void setCapacityInterval(Integer capacityInterval) {
+        this.capacityInterval = capacityInterval;
+    }
+
+    /**
+     * @return whether the heartbeats of all running executions are sent as a single message per interval.
+     */
+    public Boolean getBatchHeartbeats() {
+        return batchHeartbeats;
+    }
+
+    public void setBatchHeartbeats(Boolean batchHeartbeats) {
+        this.batchHeartbeats = batchHeartbeats;
+    }
+
+    /**
+     * @return the id of this worker, defaults to the hostname (i.e. the name of the pod).
+     */
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+
+    /**
+     * @return the version of the worker, as advertised in its capacity.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the name of the pool of this worker, as advertised in its capacity.
+     * It does not select the topics on which requests are received, see {@link #getLanes()}.
+     */
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    /**
+     * @return the lanes served by this worker, mapped to their weight in the allocation of execution slots.
+     * When no lanes are configured, the worker serves only the default lane (the scriptengine topic).
+     * A lane never uses more than its share of the slots, even while the other lanes are idle.
+     */
+    public Map<String, Integer> getLanes() {
+        return lanes;
+    }
+
+    public void setLanes(Map<String, Integer> lanes) {
+        this.lanes = lanes;
+    }
+
+    /**
+     * @return the topics on which this worker receives requests, one per lane.
+     */
+    public String[] getRequestTopics() {
+        return lanes.keySet().stream().map(KafkaConfig::getRequestTopic).toArray(String[]::new);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Contains all configuration related to how this worker schedules the execution of scripts.
+ */
+@Component
+@ConfigurationProperties(prefix = "phaedra2.script-engine-worker.execution")
+public class ExecutionConfig {
+
+    private Integer slots = Runtime.getRuntime().availableProcessors();
+
+    private Boolean batchListener = false;
+
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+    private Integer maxInFlight;
+
+    private Long maxBufferedBytes = 512L * 1024 * 1024;
+
+    @PostConstruct
+    public void init() {
+        if (slots == null || slots < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.execution.slots must be at least 1");
+        }
+        if (threadMode == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.execution.thread-mode not set");
+        }
+        if (maxInFlight != null && maxInFlight < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.execution.max-in-flight must be at least 1");
+        }
+        if (maxBufferedBytes == null || maxBufferedBytes < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.execution.max-buffered-bytes must be at least 1");
+        }
+    }
+
+    /**
+     * @return the maximum number of scripts executed in parallel. Only applies to executors that allow concurrency,
+     * other executors always use a single slot.
+     */
+    public Integer getSlots() {
+        return slots;
+    }
+
+    public void setSlots(Integer slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * @return whether requests must be consumed in batches (i.e. one batch per poll) instead of one by one.
+     */
+    public Boolean getBatchListener() {
+        return batchListener;
+    }
+
+    public void setBatchListener(Boolean batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * @return the kind of threads used to execute scripts, publish their output and run the async tasks of the worker.
+     */
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    /**
+     * @return the number of queued and running executions above which the consumption of requests is paused, also
+     * the maximum number of requests returned by a single poll. When not set, twice the number of slots is used.
+     */
+    public Integer getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(Integer maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the estimated memory (in bytes) used by the inputs of queued and running executions above which the
+     * consumption of requests is paused.
+     */
+    public Long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public void setMaxBufferedBytes(Long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+}
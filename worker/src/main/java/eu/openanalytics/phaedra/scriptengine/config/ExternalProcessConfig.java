@@ -24,6 +24,8 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 @ConfigurationProperties(prefix = "phaedra2.script-engine-worker")
 public class ExternalProcessConfig {
@@ -32,6 +34,32 @@ public class ExternalProcessConfig {
 
     private Boolean cleanWorkspace = true;
 
+    private Integer workspacePoolSize = 0;
+
+    private Long workspaceQuotaBytes;
+
+    private IoMode ioMode = IoMode.FILE;
+
+    private Long maxOutputBytes = 67108864L;
+
+    private Integer cleanupQueueSize = 1024;
+
+    private Integer cleanupBatchSize = 32;
+
+    private Boolean sweepWorkspace = false;
+
+    private Map<String, Integer> timeoutSeconds = new HashMap<>();
+
+    private String cgroupRoot;
+
+    private Long memoryMaxBytes;
+
+    private Double cpuMax;
+
+    private Integer outputTailBytes = 16384;
+
+    private Boolean attachOutputTail = false;
+
     @PostConstruct
     public void init() {
         if (workspace == null) {
@@ -44,6 +72,44 @@ public class ExternalProcessConfig {
         if (!path.exists() || !path.isDirectory()) {
             throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.workspace does not exists or is not a directory");
         }
+        if (workspacePoolSize == null || workspacePoolSize < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.workspace-pool-size may not be negative");
+        }
+        if (ioMode == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.io-mode not set");
+        }
+        if (maxOutputBytes == null || maxOutputBytes < 1 || maxOutputBytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.max-output-bytes must be between 1 and " + (Integer.MAX_VALUE - 8));
+        }
+        if (workspaceQuotaBytes != null && workspaceQuotaBytes < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.workspace-quota-bytes must be at least 1");
+        }
+        if (cleanupQueueSize == null || cleanupQueueSize < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.cleanup-queue-size must be at least 1");
+        }
+        if (cgroupRoot != null && !new File(cgroupRoot).isDirectory()) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.cgroup-root does not exists or is not a directory");
+        }
+        if ((memoryMaxBytes != null || cpuMax != null) && cgroupRoot == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.memory-max-bytes and cpu-max require cgroup-root");
+        }
+        if (memoryMaxBytes != null && memoryMaxBytes < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.memory-max-bytes must be at least 1");
+        }
+        if (cpuMax != null && cpuMax <= 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.cpu-max must be positive");
+        }
+        if (outputTailBytes == null || outputTailBytes < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.output-tail-bytes may not be negative");
+        }
+        for (var timeout : timeoutSeconds.entrySet()) {
+            if (timeout.getValue() == null || timeout.getValue() < 1) {
+                throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.timeout-seconds." + timeout.getKey() + " must be at least 1");
+            }
+        }
+        if (cleanupBatchSize == null || cleanupBatchSize < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.cleanup-batch-size must be at least 1");
+        }
     }
 
     public void setWorkspace(String workspace) {
@@ -69,6 +135,171 @@ public class ExternalProcessConfig {
         this.cleanWorkspace = cleanWorkspace;
     }
 
+    /**
+     * @return the number of workspaces that are created up-front and re-used between executions, 0 to create a new
+     * workspace for every execution. Combine with a workspace on a RAM-backed filesystem (e.g. /dev/shm/) to avoid
+     * disk I/O entirely.
+     */
+    public Integer getWorkspacePoolSize() {
+        return workspacePoolSize;
+    }
+
+    public void setWorkspacePoolSize(Integer workspacePoolSize) {
+        this.workspacePoolSize = workspacePoolSize;
+    }
+
+    /**
+     * @return the maximum size of the input and script written to a single workspace, or null when unlimited.
+     * Requests exceeding it result in BAD_REQUEST.
+     */
+    public Long getWorkspaceQuotaBytes() {
+        return workspaceQuotaBytes;
+    }
+
+    public void setWorkspaceQuotaBytes(Long workspaceQuotaBytes) {
+        this.workspaceQuotaBytes = workspaceQuotaBytes;
+    }
+
+    /**
+     * @return how the input and output are exchanged with the process executing the script.
+     */
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public void setIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+    }
+
+    /**
+     * @return the maximum size of the output of a script, larger outputs result in {@code OUTPUT_TOO_LARGE}.
+     */
+    public Long getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    public void setMaxOutputBytes(Long maxOutputBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * @return the maximum number of workspaces waiting to be deleted in the background, when full workspaces are
+     * deleted before publishing the output.
+     */
+    public Integer getCleanupQueueSize() {
+        return cleanupQueueSize;
+    }
+
+    public void setCleanupQueueSize(Integer cleanupQueueSize) {
+        this.cleanupQueueSize = cleanupQueueSize;
+    }
+
+    /**
+     * @return the maximum number of workspaces deleted at once by the background cleaner.
+     */
+    public Integer getCleanupBatchSize() {
+        return cleanupBatchSize;
+    }
+
+    public void setCleanupBatchSize(Integer cleanupBatchSize) {
+        this.cleanupBatchSize = cleanupBatchSize;
+    }
+
+    /**
+     * @return whether workspaces left behind by a previous run (e.g. after a crash) are deleted at startup. Only
+     * applies when the workspace is cleaned. Every workspace in the directory is considered left behind, therefore
+     * this may only be enabled when the directory is not shared with other workers.
+     */
+    public Boolean getSweepWorkspace() {
+        return sweepWorkspace;
+    }
+
+    public void setSweepWorkspace(Boolean sweepWorkspace) {
+        this.sweepWorkspace = sweepWorkspace;
+    }
+
+    /**
+     * @return the maximum duration of an execution in seconds, by language. Executions of languages without a timeout
+     * only stop early when the request specifies a timeout.
+     */
+    public Map<String, Integer> getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public void setTimeoutSeconds(Map<String, Integer> timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @return the cgroup (v2) in which a child cgroup is created for every execution, or null to not use cgroups.
+     * The worker must be allowed to manage this cgroup, and may not run in it itself.
+     */
+    public String getCgroupRoot() {
+        return cgroupRoot;
+    }
+
+    public void setCgroupRoot(String cgroupRoot) {
+        this.cgroupRoot = cgroupRoot;
+    }
+
+    /**
+     * @return the maximum memory (memory.max) of the processes of an execution, or null when unlimited. Executions
+     * exceeding it are killed and result in {@code SCRIPT_OUT_OF_MEMORY}.
+     */
+    public Long getMemoryMaxBytes() {
+        return memoryMaxBytes;
+    }
+
+    public void setMemoryMaxBytes(Long memoryMaxBytes) {
+        this.memoryMaxBytes = memoryMaxBytes;
+    }
+
+    /**
+     * @return the maximum number of CPUs (cpu.max) the processes of an execution may use, e.g. 1.5, or null when
+     * unlimited.
+     */
+    public Double getCpuMax() {
+        return cpuMax;
+    }
+
+    public void setCpuMax(Double cpuMax) {
+        this.cpuMax = cpuMax;
+    }
+
+    /**
+     * @return the number of bytes of the console output (stdout and stderr) of a script that are kept, the rest is
+     * discarded.
+     */
+    public Integer getOutputTailBytes() {
+        return outputTailBytes;
+    }
+
+    public void setOutputTailBytes(Integer outputTailBytes) {
+        this.outputTailBytes = outputTailBytes;
+    }
+
+    /**
+     * @return whether the last console output of a script is added to the status message of a {@code SCRIPT_ERROR}.
+     */
+    public Boolean getAttachOutputTail() {
+        return attachOutputTail;
+    }
+
+    public void setAttachOutputTail(Boolean attachOutputTail) {
+        this.attachOutputTail = attachOutputTail;
+    }
+
+    /**
+     * @return the timeout of an execution in seconds, i.e. the shortest of the timeout of its language and its request,
+     * or null when neither is set.
+     */
+    public Integer getTimeoutSeconds(String language, Integer requestTimeoutSeconds) {
+        var languageTimeoutSeconds = language != null ? timeoutSeconds.get(language.toLowerCase()) : null;
+        if (requestTimeoutSeconds == null || requestTimeoutSeconds < 1) return languageTimeoutSeconds;
+        if (languageTimeoutSeconds == null) return requestTimeoutSeconds;
+        return Math.min(languageTimeoutSeconds, requestTimeoutSeconds);
+    }
+
 
 }
 
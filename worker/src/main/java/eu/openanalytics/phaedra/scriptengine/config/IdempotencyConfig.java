@@ -0,0 +1,86 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Contains all configuration related to detecting redelivered script execution requests.
+ */
+@Component
+@ConfigurationProperties(prefix = "phaedra2.script-engine-worker.idempotency")
+public class IdempotencyConfig {
+
+    private Boolean enabled = true;
+    private Integer maxEntries = 10000;
+    private Long ttlSeconds = 3600L;
+
+    @PostConstruct
+    public void init() {
+        if (enabled == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.idempotency.enabled not set");
+        }
+        if (maxEntries == null || maxEntries < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.idempotency.max-entries must be at least 1");
+        }
+        if (ttlSeconds == null || ttlSeconds < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.idempotency.ttl-seconds must be at least 1");
+        }
+    }
+
+    /**
+     * @return whether a redelivered request re-uses the execution of the original request.
+     */
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the maximum number of executions remembered, the oldest completed executions are forgotten first.
+     * Running executions are never forgotten, the store may temporarily exceed this maximum.
+     */
+    public Integer getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return how long the output of a completed execution is remembered.
+     */
+    public Long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(Long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+}
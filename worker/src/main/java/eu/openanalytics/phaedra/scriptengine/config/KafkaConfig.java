@@ -20,10 +20,27 @@
  */
 package eu.openanalytics.phaedra.scriptengine.config;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
-import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+import org.springframework.kafka.annotation.KafkaListenerConfigurer;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.MethodKafkaListenerEndpoint;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.util.ReflectionUtils;
+
+import eu.openanalytics.phaedra.scriptengine.service.ExecutionSlotService;
+import eu.openanalytics.phaedra.scriptengine.service.MessageHandlingService;
 
 @Configuration
 @EnableKafka
@@ -34,9 +51,106 @@ public class KafkaConfig {
     public static final String EVENT_REQUEST_SCRIPT_EXECUTION = "requestScriptExecution";
     public static final String EVENT_SCRIPT_EXECUTION_UPDATE = "scriptExecutionUpdate";
     public static final String EVENT_SCRIPT_EXECUTION_HEARTBEAT = "scriptExecutionHeartbeat";
+    public static final String EVENT_SCRIPT_EXECUTION_HEARTBEAT_BATCH = "scriptExecutionHeartbeatBatch";
+    public static final String EVENT_WORKER_CAPACITY = "workerCapacity";
+
+    /**
+     * Requests of the default lane are sent to {@link #TOPIC_SCRIPTENGINE}, requests of any other lane to a
+     * separate topic, see {@link #getRequestTopic(String)}.
+     */
+    public static final String DEFAULT_LANE = "default";
+
+    /**
+     * Optional headers of a request, allowing workers to route the request without deserializing its payload.
+     */
+    public static final String HEADER_LANGUAGE = "scriptLanguage";
+    public static final String HEADER_EXECUTION_ID = "scriptExecutionId";
+
+    /**
+     * @return false when the record is not a request or when it is a request for another language.
+     * Requests without a {@link #HEADER_LANGUAGE} header are accepted, their language is checked after deserialization.
+     */
+    public static boolean isScriptExecutionRequest(ConsumerRecord<String, ?> rec, String language) {
+        return rec.key() != null && rec.key().equalsIgnoreCase(EVENT_REQUEST_SCRIPT_EXECUTION) && matchesLanguage(rec, language);
+    }
+
+    /**
+     * @param lane the lane of a request (e.g. fast-lane or background)
+     * @return the topic to which requests of this lane are sent
+     */
+    public static String getRequestTopic(String lane) {
+        return DEFAULT_LANE.equals(lane) ? TOPIC_SCRIPTENGINE : TOPIC_SCRIPTENGINE + "-" + lane;
+    }
+
+    /**
+     * Counterpart of {@link #getRequestTopic(String)}.
+     */
+    public static String getLane(String requestTopic) {
+        return requestTopic.equals(TOPIC_SCRIPTENGINE) ? DEFAULT_LANE : requestTopic.substring(TOPIC_SCRIPTENGINE.length() + 1);
+    }
 
+    /**
+     * @return the id of the listener container consuming the requests of the lane
+     */
+    public static String getListenerId(String lane) {
+        return "scriptExecutionRequests-" + lane;
+    }
+
+    private static boolean matchesLanguage(ConsumerRecord<String, ?> rec, String language) {
+        var header = rec.headers().lastHeader(HEADER_LANGUAGE);
+        if (header == null) {
+            return true;
+        }
+        return language.equalsIgnoreCase(new String(header.value(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Scripts are executed outside the listener thread, therefore offsets are acknowledged manually once the output
+     * of a script has been published. The container commits the highest acknowledged offset of a partition, the
+     * listener only acknowledges a request when all earlier requests of its partition completed as well.
+     * <p>
+     * Records are not filtered by the container, since discarded records must be acknowledged in order too.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> kafkaListenerContainerFactory(ConcurrentKafkaListenerContainerFactoryConfigurer configurer, ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        var factory = new ConcurrentKafkaListenerContainerFactory<Object, Object>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    /**
+     * Registers a separate listener (i.e. a separate consumer) for the requests of each lane, so that pausing the
+     * consumption of one lane never holds back the requests of another lane. Each poll returns at most as many
+     * records as the in-flight threshold of the lane, see {@link ExecutionSlotService}.
+     * When phaedra2.script-engine-worker.execution.batch-listener is enabled, the listeners receive all records of a
+     * poll at once.
+     */
     @Bean
-    public RecordFilterStrategy<String, Object> scriptExecutionRequestFilter() {
-        return rec -> !(rec.key().equalsIgnoreCase(EVENT_REQUEST_SCRIPT_EXECUTION));
+    public KafkaListenerConfigurer scriptExecutionRequestListeners(EnvConfig envConfig, ExecutionConfig executionConfig, MessageHandlingService messageHandlingService, ExecutionSlotService executionSlotService) {
+        var batchListener = executionConfig.getBatchListener();
+        var method = batchListener
+            ? ReflectionUtils.findMethod(MessageHandlingService.class, "onScriptExecutionRequests", List.class, Acknowledgment.class)
+            : ReflectionUtils.findMethod(MessageHandlingService.class, "onScriptExecutionRequest", ConsumerRecord.class, Acknowledgment.class);
+
+        return registrar -> {
+            var messageHandlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+            messageHandlerMethodFactory.afterPropertiesSet();
+
+            for (var lane : envConfig.getLanes().keySet()) {
+                var consumerProperties = new Properties();
+                consumerProperties.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(executionSlotService.getMaxInFlight(lane)));
+
+                var endpoint = new MethodKafkaListenerEndpoint<String, String>();
+                endpoint.setId(getListenerId(lane));
+                endpoint.setTopics(getRequestTopic(lane));
+                endpoint.setBean(messageHandlingService);
+                endpoint.setMethod(method);
+                endpoint.setMessageHandlerMethodFactory(messageHandlerMethodFactory);
+                endpoint.setBatchListener(batchListener);
+                endpoint.setConsumerProperties(consumerProperties);
+                registrar.registerEndpoint(endpoint);
+            }
+        };
     }
 }
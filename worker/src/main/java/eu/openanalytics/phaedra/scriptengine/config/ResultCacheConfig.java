@@ -0,0 +1,122 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+
+/**
+ * Contains all configuration related to caching the output of identical script executions.
+ */
+@Component
+@ConfigurationProperties(prefix = "phaedra2.script-engine-worker.result-cache")
+public class ResultCacheConfig {
+
+    private Boolean enabled = false;
+    private Long maxMemoryBytes = 67108864L;
+    private String directory;
+    private Long maxDiskBytes = 1073741824L;
+    private Long maxAgeSeconds = 86400L;
+
+    @PostConstruct
+    public void init() {
+        if (enabled == null) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.enabled not set");
+        }
+        if (maxMemoryBytes == null || maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.max-memory-bytes may not be negative");
+        }
+        if (directory != null) {
+            if (!directory.startsWith("/") || !directory.endsWith("/")) {
+                throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.directory must start and end with /");
+            }
+            File path = new File(directory);
+            if (!path.exists() || !path.isDirectory()) {
+                throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.directory does not exists or is not a directory");
+            }
+        }
+        if (maxDiskBytes == null || maxDiskBytes < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.max-disk-bytes may not be negative");
+        }
+        if (maxAgeSeconds == null || maxAgeSeconds < 1) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-cache.max-age-seconds must be at least 1");
+        }
+    }
+
+    /**
+     * @return whether successful outputs are cached and re-used for identical script executions.
+     */
+    public Boolean getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the maximum (estimated) memory used by the outputs kept in memory.
+     */
+    public Long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public void setMaxMemoryBytes(Long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * @return the directory used to keep outputs on disk, or null when outputs are only kept in memory.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the maximum size of the outputs kept on disk.
+     */
+    public Long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    public void setMaxDiskBytes(Long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * @return how long an output may be re-used.
+     */
+    public Long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public void setMaxAgeSeconds(Long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Set;
+
+/**
+ * Contains all configuration related to publishing the output of scripts.
+ */
+@Component
+@ConfigurationProperties(prefix = "phaedra2.script-engine-worker.result-publisher")
+public class ResultPublisherConfig {
+
+    private static final Set<String> COMPRESSION_TYPES = Set.of("none", "gzip", "snappy", "lz4", "zstd");
+
+    private String compressionType = "lz4";
+    private Integer lingerMs = 10;
+    private Integer batchSize = 131072;
+    private Integer maxRetries = 3;
+    private Long retryBackoffMs = 1000L;
+
+    @PostConstruct
+    public void init() {
+        if (compressionType == null || !COMPRESSION_TYPES.contains(compressionType)) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-publisher.compression-type must be one of " + COMPRESSION_TYPES);
+        }
+        if (lingerMs == null || lingerMs < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-publisher.linger-ms may not be negative");
+        }
+        if (batchSize == null || batchSize < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-publisher.batch-size may not be negative");
+        }
+        if (maxRetries == null || maxRetries < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-publisher.max-retries may not be negative");
+        }
+        if (retryBackoffMs == null || retryBackoffMs < 0) {
+            throw new IllegalArgumentException("Incorrect configuration detected: phaedra2.script-engine-worker.result-publisher.retry-backoff-ms may not be negative");
+        }
+    }
+
+    /**
+     * @return the compression type used by the producer of the outputs (none, gzip, snappy, lz4 or zstd).
+     */
+    public String getCompressionType() {
+        return compressionType;
+    }
+
+    public void setCompressionType(String compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    /**
+     * @return how long the producer waits for other outputs before sending a batch.
+     */
+    public Integer getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setLingerMs(Integer lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    /**
+     * @return the maximum size in bytes of a batch of outputs sent to a single partition.
+     */
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return how many times publishing an output is retried after the producer reported a failure.
+     */
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public Long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs(Long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Enum indicating the kind of threads used to execute scripts.
+ */
+public enum ThreadMode {
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutorService(String threadNamePrefix, int threads) {
+            return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory(threadNamePrefix));
+        }
+    },
+    /**
+     * Runs every task on its own virtual thread. Requires Java 21 or later, the method is looked up at runtime so that
+     * the worker can still be built for and run on older runtimes when this mode is not used.
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutorService(String threadNamePrefix, int threads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Incorrect configuration detected: phaedra2.script-engine-worker.execution.thread-mode virtual requires Java 21 or later", e);
+            }
+        }
+    };
+
+    /**
+     * @param threadNamePrefix prefix of the name of the threads (ignored by virtual threads)
+     * @param threads          the number of threads (ignored by virtual threads, which create a thread per task)
+     * @return a new ExecutorService using this kind of threads
+     */
+    public abstract ExecutorService newExecutorService(String threadNamePrefix, int threads);
+
+}
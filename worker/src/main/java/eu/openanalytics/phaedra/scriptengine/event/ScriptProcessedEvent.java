@@ -20,21 +20,52 @@
  */
 package eu.openanalytics.phaedra.scriptengine.event;
 
+import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import org.springframework.context.ApplicationEvent;
 
+import java.time.Duration;
+
 /**
  * Event when Script has been fully processed (i.e. executed).
  */
 public class ScriptProcessedEvent extends ApplicationEvent {
 
-    private final String scriptExecutionId;
+    private final ScriptExecutionInputDTO scriptExecutionInput;
+    private final ResponseStatusCode statusCode;
+    private final Duration executionTime;
+    private final Duration totalTime;
 
-    public ScriptProcessedEvent(Object source, String scriptExecutionId) {
+    /**
+     * @param statusCode    the status of the output, or null when the execution failed or did not produce an output
+     * @param executionTime time spent executing the script
+     * @param totalTime     time between the submission of the request and the end of its execution
+     */
+    public ScriptProcessedEvent(Object source, ScriptExecutionInputDTO scriptExecutionInput, ResponseStatusCode statusCode, Duration executionTime, Duration totalTime) {
         super(source);
-        this.scriptExecutionId = scriptExecutionId;
+        this.scriptExecutionInput = scriptExecutionInput;
+        this.statusCode = statusCode;
+        this.executionTime = executionTime;
+        this.totalTime = totalTime;
     }
 
     public String getScriptExecutionId() {
-        return scriptExecutionId;
+        return scriptExecutionInput.getId();
+    }
+
+    public ScriptExecutionInputDTO getScriptExecutionInput() {
+        return scriptExecutionInput;
+    }
+
+    public ResponseStatusCode getStatusCode() {
+        return statusCode;
+    }
+
+    public Duration getExecutionTime() {
+        return executionTime;
+    }
+
+    public Duration getTotalTime() {
+        return totalTime;
     }
 }
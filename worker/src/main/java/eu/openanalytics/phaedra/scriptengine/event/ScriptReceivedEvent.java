@@ -20,26 +20,34 @@
  */
 package eu.openanalytics.phaedra.scriptengine.event;
 
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import org.springframework.context.ApplicationEvent;
 
 import java.time.Duration;
 
 /**
- * Event when Script has been fully processed (i.e. executed).
+ * Event when the execution of a Script starts, i.e. when it has been taken from the queue and got an execution slot.
  */
 public class ScriptReceivedEvent extends ApplicationEvent {
 
-    private final String scriptExecutionId;
+    private final ScriptExecutionInputDTO scriptExecutionInput;
     private final Duration timeInQueue;
 
-    public ScriptReceivedEvent(Object source, String scriptExecutionId, Duration timeInQueue) {
+    /**
+     * @param timeInQueue time between the submission of the request (i.e. the timestamp of its Kafka record) and the start of its execution.
+     */
+    public ScriptReceivedEvent(Object source, ScriptExecutionInputDTO scriptExecutionInput, Duration timeInQueue) {
         super(source);
-        this.scriptExecutionId = scriptExecutionId;
+        this.scriptExecutionInput = scriptExecutionInput;
         this.timeInQueue = timeInQueue;
     }
 
     public String getScriptExecutionId() {
-        return scriptExecutionId;
+        return scriptExecutionInput.getId();
+    }
+
+    public ScriptExecutionInputDTO getScriptExecutionInput() {
+        return scriptExecutionInput;
     }
 
     public Duration getTimeInQueue() {
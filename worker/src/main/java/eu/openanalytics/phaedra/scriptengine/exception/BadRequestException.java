@@ -0,0 +1,38 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.exception;
+
+/**
+ * Indicates that the request cannot be executed because of its contents (e.g. its input is invalid).
+ */
+public class BadRequestException extends WorkerException {
+
+	private static final long serialVersionUID = -5185466251397398716L;
+
+	public BadRequestException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public BadRequestException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.exception;
+
+/**
+ * Indicates that a script did not finish within its timeout.
+ */
+public class ScriptTimeoutException extends WorkerException {
+
+	private static final long serialVersionUID = -2390412796614452733L;
+
+	public ScriptTimeoutException(long timeoutSeconds) {
+		super(String.format("Script did not finish within %s seconds", timeoutSeconds));
+	}
+
+}
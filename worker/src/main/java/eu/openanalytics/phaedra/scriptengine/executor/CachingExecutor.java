@@ -0,0 +1,291 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.scriptengine.config.ResultCacheConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat;
+import eu.openanalytics.phaedra.scriptengine.dto.ResourceUsageDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Decorator of an {@link IExecutor} that re-uses the output of an earlier execution of a byte-identical
+ * (language, script, input) triple, e.g. when a plate is reprocessed without changes.
+ * <p>
+ * Outputs are kept in memory (least recently used first evicted) and, when a directory is configured, on disk (oldest
+ * first evicted). Both tiers are bounded in size and outputs expire after the configured age. Only outputs with status
+ * {@link ResponseStatusCode#SUCCESS} are cached, since other outputs may be caused by transient problems. Scripts that
+ * are not deterministic (e.g. depend on the current time or random numbers) must set
+ * {@link ScriptExecutionInputDTO#getBypassCache()}, in which case the cache is neither consulted nor updated.
+ * <p>
+ * Only the bookkeeping of both tiers is synchronized, outputs are read from and written to disk without blocking other
+ * executions.
+ */
+public class CachingExecutor implements IExecutor {
+
+    private final IExecutor executor;
+    private final ObjectMapper objectMapper;
+    private final String version;
+
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final long maxAgeMillis;
+    private final File directory;
+
+    private final Map<String, CachedOutput> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    private final Object evictionLock = new Object();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypasses;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * @param version version of the worker (null when unknown), outputs of another version are never re-used
+     */
+    public CachingExecutor(IExecutor executor, ResultCacheConfig resultCacheConfig, String version, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.objectMapper = objectMapper;
+        this.version = version;
+        this.maxMemoryBytes = resultCacheConfig.getMaxMemoryBytes();
+        this.maxDiskBytes = resultCacheConfig.getMaxDiskBytes();
+        this.maxAgeMillis = resultCacheConfig.getMaxAgeSeconds() * 1000;
+        this.directory = resultCacheConfig.getDirectory() != null ? new File(resultCacheConfig.getDirectory()) : null;
+
+        hits = counter(meterRegistry, "hit");
+        misses = counter(meterRegistry, "miss");
+        bypasses = counter(meterRegistry, "bypass");
+
+        if (directory != null) {
+            evictDisk();
+        }
+        logger.info("Result cache enabled, memory: {} bytes, disk: {}", maxMemoryBytes, directory != null ? directory + " (" + maxDiskBytes + " bytes)" : "disabled");
+    }
+
+    @Override
+    public ScriptExecutionOutputDTO execute(ScriptExecutionInputDTO scriptExecution) throws InterruptedException, JsonProcessingException {
+        if (Boolean.TRUE.equals(scriptExecution.getBypassCache())) {
+            bypasses.increment();
+            return executor.execute(scriptExecution);
+        }
+
+        var key = computeKey(scriptExecution);
+        var cached = lookup(key);
+        if (cached != null) {
+            logger.info("Re-using cached output for ScriptExecution [{}]", scriptExecution.getId());
+            hits.increment();
+            return new ScriptExecutionOutputDTO(scriptExecution.getId(), cached.getOutput(), cached.getStatusCode(), cached.getStatusMessage(), cached.getExitCode());
+        }
+
+        misses.increment();
+        var output = executor.execute(scriptExecution);
+        if (output != null && output.getStatusCode() == ResponseStatusCode.SUCCESS) {
+            store(key, output);
+        }
+        return output;
+    }
+
+    private ScriptExecutionOutputDTO lookup(String key) {
+        var now = System.currentTimeMillis();
+        synchronized (this) {
+            var cached = memory.get(key);
+            if (cached != null) {
+                if (now - cached.createdAt <= maxAgeMillis) {
+                    return cached.output;
+                }
+                removeFromMemory(key);
+            }
+        }
+
+        if (directory == null) return null;
+        var file = new File(directory, key + ".json");
+        var lastModified = file.lastModified();
+        if (lastModified == 0) return null;
+        if (now - lastModified > maxAgeMillis) {
+            deleteFromDisk(file);
+            return null;
+        }
+        try {
+            var output = objectMapper.readValue(file, ScriptExecutionOutputDTO.class);
+            synchronized (this) {
+                addToMemory(key, new CachedOutput(output, lastModified));
+            }
+            return output;
+        } catch (IOException e) {
+            logger.warn("Failed to read cached output " + file, e);
+            deleteFromDisk(file);
+            return null;
+        }
+    }
+
+    private void store(String key, ScriptExecutionOutputDTO output) {
+        synchronized (this) {
+            addToMemory(key, new CachedOutput(output, System.currentTimeMillis()));
+        }
+
+        if (directory == null) return;
+        var file = new File(directory, key + ".json");
+        try {
+            var tmpFile = File.createTempFile(key, ".tmp", directory);
+            objectMapper.writeValue(tmpFile, output);
+            var size = tmpFile.length();
+            // an existing output of the same key (e.g. stored by a concurrent execution) is replaced, not added
+            var replacedSize = file.length();
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            boolean evict;
+            synchronized (this) {
+                diskBytes += size - replacedSize;
+                evict = diskBytes > maxDiskBytes;
+            }
+            if (evict) {
+                evictDisk();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write cached output " + file, e);
+        }
+    }
+
+    private void addToMemory(String key, CachedOutput cached) {
+        removeFromMemory(key);
+        memory.put(key, cached);
+        memoryBytes += cached.size;
+
+        var it = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            memoryBytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    private void removeFromMemory(String key) {
+        var removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= removed.size;
+        }
+    }
+
+    /**
+     * Removes the expired outputs from disk and, when the disk tier is too large, the oldest outputs.
+     * Only one thread evicts at a time, lookups and stores of other threads continue meanwhile.
+     */
+    private void evictDisk() {
+        synchronized (evictionLock) {
+            var files = directory.listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".tmp"));
+            if (files == null) return;
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+            var now = System.currentTimeMillis();
+            var remainingBytes = Arrays.stream(files).mapToLong(File::length).sum();
+            for (var file : files) {
+                if (remainingBytes <= maxDiskBytes * 0.9 && now - file.lastModified() <= maxAgeMillis) continue;
+                var size = file.length();
+                if (file.delete()) {
+                    remainingBytes -= size;
+                }
+            }
+            synchronized (this) {
+                diskBytes = remainingBytes;
+            }
+        }
+    }
+
+    private void deleteFromDisk(File file) {
+        var size = file.length();
+        if (file.delete()) {
+            synchronized (this) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    private String computeKey(ScriptExecutionInputDTO scriptExecution) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            // the exchange format is part of the key, since the JSON text of an output differs between the formats
+            // (e.g. doubles are written with 15 significant digits by rjson, but in full by ColumnarCodec)
+            var exchangeFormat = Objects.requireNonNullElse(scriptExecution.getExchangeFormat(), ExchangeFormat.JSON).name();
+            for (var part : new String[]{version, scriptExecution.getLanguage(), exchangeFormat, scriptExecution.getScript(), scriptExecution.getInput()}) {
+                var bytes = part != null ? part.getBytes(StandardCharsets.UTF_8) : new byte[0];
+                // prefix every part with its length, so that moving characters between the parts changes the key
+                digest.update(Integer.toString(part != null ? bytes.length : -1).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(bytes);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("phaedra2.scriptengine.worker.result.cache")
+            .description("Number of script executions looked up in the result cache")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private static class CachedOutput {
+
+        private final ScriptExecutionOutputDTO output;
+        private final long createdAt;
+        private final long size;
+
+        private CachedOutput(ScriptExecutionOutputDTO output, long createdAt) {
+            this.output = output;
+            this.createdAt = createdAt;
+            var size = 64L;
+            if (output.getOutput() != null) size += 2L * output.getOutput().length();
+            if (output.getStatusMessage() != null) size += 2L * output.getStatusMessage().length();
+            this.size = size;
+        }
+
+    }
+
+    @Override
+    public ResourceUsageDTO getResourceUsage(String scriptExecutionId) {
+        return executor.getResourceUsage(scriptExecutionId);
+    }
+
+}
@@ -21,6 +21,7 @@
 package eu.openanalytics.phaedra.scriptengine.executor;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import eu.openanalytics.phaedra.scriptengine.dto.ResourceUsageDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
@@ -86,4 +87,9 @@ public class ChaosExecutor implements IExecutor {
             return executor.execute(scriptExecution);
         }
     }
+
+    @Override
+    public ResourceUsageDTO getResourceUsage(String scriptExecutionId) {
+        return executor.getResourceUsage(scriptExecutionId);
+    }
 }
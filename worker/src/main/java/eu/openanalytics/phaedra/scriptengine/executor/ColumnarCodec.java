@@ -0,0 +1,329 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.openanalytics.phaedra.scriptengine.exception.BadRequestException;
+import eu.openanalytics.phaedra.scriptengine.exception.InvalidOutputException;
+import eu.openanalytics.phaedra.scriptengine.exception.OutputTooLargeException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary columnar representation of a JSON value, exchanged with scripts through memory-mapped files instead of JSON
+ * text, see {@link eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat#BINARY}.
+ * <p>
+ * A file starts with the magic {@code PHC1}, followed by a single value. A value starts with a type byte and a 32-bit
+ * count, followed by:
+ * <ul>
+ *     <li>{@link #DOUBLE}: count 64-bit doubles, NaN being NA/null</li>
+ *     <li>{@link #LOGICAL}: count 32-bit integers, 0 or 1, {@link Integer#MIN_VALUE} being NA/null</li>
+ *     <li>{@link #STRING}: count strings, each a 32-bit length (-1 being NA/null) followed by UTF-8 bytes</li>
+ *     <li>{@link #OBJECT}: count fields, each a name (as a string) followed by a value</li>
+ *     <li>{@link #JSON}: count UTF-8 bytes of JSON text, for values that are not a (vector of) primitives or an object</li>
+ * </ul>
+ * All numbers are little-endian. Arrays of numbers, booleans or strings become a single column, just like
+ * {@code rjson::fromJSON(simplify=TRUE)} turns them into a vector, so that scripts see the same values in both formats.
+ */
+public class ColumnarCodec {
+
+    public static final byte DOUBLE = 1;
+    public static final byte LOGICAL = 2;
+    public static final byte STRING = 3;
+    public static final byte OBJECT = 4;
+    public static final byte JSON = 5;
+
+    private static final byte[] MAGIC = "PHC1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private ColumnarCodec() {
+    }
+
+    /**
+     * Writes the JSON value to the file. The size of the encoded value is computed first, so that it can be written
+     * directly into a memory-mapped file.
+     *
+     * @throws com.fasterxml.jackson.core.JsonProcessingException when the value is not valid JSON
+     * @throws BadRequestException when the encoded value does not fit in a single memory-mapped file (2 GB)
+     */
+    public static void encode(String json, Path file) throws IOException, BadRequestException {
+        var value = objectMapper.readTree(json);
+        var size = MAGIC.length + size(value);
+        if (size > Integer.MAX_VALUE) {
+            throw new BadRequestException(String.format("Input of %s bytes is too large for the binary exchange format, use JSON instead", size));
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC);
+            write(value, buffer);
+        }
+    }
+
+    /**
+     * @param maxLength the maximum length of the JSON text, checked while it is generated, since the text of a
+     *                  value can be several times larger than its encoded size (e.g. a double takes 8 bytes but up
+     *                  to 24 characters)
+     * @return the value in the file as JSON text, with the same structure as produced by {@code rjson::toJSON}.
+     * @throws InvalidOutputException when the file is not a columnar file, or is truncated or corrupt
+     * @throws OutputTooLargeException when the JSON text would be longer than maxLength
+     */
+    public static String decode(Path file, long maxLength) throws IOException, InvalidOutputException, OutputTooLargeException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new InvalidOutputException("Columnar file is too large: " + file);
+            }
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < MAGIC.length || !Arrays.equals(getBytes(buffer, MAGIC.length), MAGIC)) {
+                throw new InvalidOutputException("Not a columnar file: " + file);
+            }
+            var json = new LimitedWriter(maxLength);
+            try (var generator = jsonFactory.createGenerator(json)) {
+                read(buffer, generator);
+            }
+            return json.toString();
+        } catch (BufferUnderflowException e) {
+            throw new InvalidOutputException("Truncated or corrupt columnar file: " + file);
+        } catch (LimitExceededException e) {
+            throw new OutputTooLargeException(maxLength);
+        }
+    }
+
+    private static byte typeOf(JsonNode value) {
+        if (value.isNumber()) return DOUBLE;
+        if (value.isBoolean()) return LOGICAL;
+        if (value.isTextual()) return STRING;
+        if (value.isObject()) return OBJECT;
+        if (value.isArray() && value.size() > 0) {
+            var type = typeOf(value.get(0));
+            if (type == OBJECT) return JSON;
+            for (var element : value) {
+                if (element.isArray() || typeOf(element) != type) return JSON;
+            }
+            return type;
+        }
+        return JSON;
+    }
+
+    private static long size(JsonNode value) {
+        long size = 1 + 4;
+        switch (typeOf(value)) {
+            case DOUBLE:
+                return size + 8L * count(value);
+            case LOGICAL:
+                return size + 4L * count(value);
+            case STRING:
+                for (var element : elements(value)) {
+                    size += 4 + utf8Length(element.textValue());
+                }
+                return size;
+            case OBJECT:
+                var fields = value.fields();
+                while (fields.hasNext()) {
+                    var field = fields.next();
+                    size += 4 + utf8Length(field.getKey()) + size(field.getValue());
+                }
+                return size;
+            default:
+                return size + value.toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    private static void write(JsonNode value, ByteBuffer buffer) {
+        var type = typeOf(value);
+        buffer.put(type);
+        switch (type) {
+            case DOUBLE:
+                buffer.putInt(count(value));
+                for (var element : elements(value)) buffer.putDouble(element.doubleValue());
+                break;
+            case LOGICAL:
+                buffer.putInt(count(value));
+                for (var element : elements(value)) buffer.putInt(element.booleanValue() ? 1 : 0);
+                break;
+            case STRING:
+                buffer.putInt(count(value));
+                for (var element : elements(value)) putString(element.textValue(), buffer);
+                break;
+            case OBJECT:
+                buffer.putInt(value.size());
+                var fields = value.fields();
+                while (fields.hasNext()) {
+                    var field = fields.next();
+                    putString(field.getKey(), buffer);
+                    write(field.getValue(), buffer);
+                }
+                break;
+            default:
+                var json = value.toString().getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(json.length);
+                buffer.put(json);
+        }
+    }
+
+    private static void read(ByteBuffer buffer, JsonGenerator generator) throws IOException, InvalidOutputException {
+        var type = buffer.get();
+        var count = buffer.getInt();
+        switch (type) {
+            case DOUBLE:
+                // like rjson, a vector of length 1 is a scalar
+                if (count != 1) generator.writeStartArray();
+                for (int i = 0; i < count; i++) writeDouble(buffer.getDouble(), generator);
+                if (count != 1) generator.writeEndArray();
+                break;
+            case LOGICAL:
+                if (count != 1) generator.writeStartArray();
+                for (int i = 0; i < count; i++) {
+                    var logical = buffer.getInt();
+                    if (logical == Integer.MIN_VALUE) generator.writeNull();
+                    else generator.writeBoolean(logical != 0);
+                }
+                if (count != 1) generator.writeEndArray();
+                break;
+            case STRING:
+                if (count != 1) generator.writeStartArray();
+                for (int i = 0; i < count; i++) {
+                    var string = getString(buffer);
+                    if (string == null) generator.writeNull();
+                    else generator.writeString(string);
+                }
+                if (count != 1) generator.writeEndArray();
+                break;
+            case OBJECT:
+                generator.writeStartObject();
+                for (int i = 0; i < count; i++) {
+                    var name = getString(buffer);
+                    if (name == null) throw new InvalidOutputException("Field without name in columnar file");
+                    generator.writeFieldName(name);
+                    read(buffer, generator);
+                }
+                generator.writeEndObject();
+                break;
+            case JSON:
+                generator.writeRawValue(new String(getBytes(buffer, count), StandardCharsets.UTF_8));
+                break;
+            default:
+                throw new InvalidOutputException("Unknown column type " + type + " in columnar file");
+        }
+    }
+
+    private static void writeDouble(double value, JsonGenerator generator) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            generator.writeNull();
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            // write whole numbers without fraction, as rjson does
+            generator.writeNumber((long) value);
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    private static int count(JsonNode value) {
+        return value.isArray() ? value.size() : 1;
+    }
+
+    private static Iterable<JsonNode> elements(JsonNode value) {
+        return value.isArray() ? value : List.of(value);
+    }
+
+    private static int utf8Length(String string) {
+        return string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(String string, ByteBuffer buffer) {
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length < 0) return null;
+        return new String(getBytes(buffer, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks the length before allocating, so that a corrupt length cannot exhaust the heap of the worker.
+     */
+    private static byte[] getBytes(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Collects the JSON text, up to a maximum length. The generator writes its (small) buffer whenever it is full, so
+     * the text never grows much beyond the maximum.
+     */
+    private static class LimitedWriter extends Writer {
+
+        private final StringBuilder text = new StringBuilder();
+        private final long maxLength;
+
+        private LimitedWriter(long maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws LimitExceededException {
+            if (text.length() + (long) length > maxLength) {
+                throw new LimitExceededException();
+            }
+            text.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+
+    }
+
+    private static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+}
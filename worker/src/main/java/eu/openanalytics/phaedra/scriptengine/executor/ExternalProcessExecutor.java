@@ -21,20 +21,46 @@
 package eu.openanalytics.phaedra.scriptengine.executor;
 
 import eu.openanalytics.phaedra.scriptengine.config.ExternalProcessConfig;
+import eu.openanalytics.phaedra.scriptengine.config.IoMode;
+import eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat;
+import eu.openanalytics.phaedra.scriptengine.dto.ResourceUsageDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import eu.openanalytics.phaedra.scriptengine.exception.BadRequestException;
+import eu.openanalytics.phaedra.scriptengine.exception.InvalidOutputException;
+import eu.openanalytics.phaedra.scriptengine.exception.OutputTooLargeException;
+import eu.openanalytics.phaedra.scriptengine.exception.ScriptOutOfMemoryException;
+import eu.openanalytics.phaedra.scriptengine.exception.ScriptTimeoutException;
 import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
 import eu.openanalytics.phaedra.scriptengine.model.runtime.ScriptExecution;
 import eu.openanalytics.phaedra.scriptengine.service.ShutdownService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.FileSystemUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Abstract executor that contains the global logic for executing a script using an external process.
@@ -42,12 +68,53 @@ import java.util.UUID;
  */
 public abstract class ExternalProcessExecutor implements IExecutor {
 
+    /**
+     * Optional file in the workspace in which a script can report its progress, as a fraction between 0 and 1,
+     * optionally followed by a message (e.g. "0.4 normalizing plate 2").
+     */
+    public static final String PROGRESS_FILE = "progress.txt";
+
+    /**
+     * How long to wait for the console output of a failed script, which is only complete when all processes sharing
+     * its stdout and stderr exited.
+     */
+    private static final Duration OUTPUT_TAIL_MAX_WAIT = Duration.ofSeconds(1);
+
     private final ExternalProcessConfig config;
 
+    private final Map<String, ScriptExecution> runningExecutions = new ConcurrentHashMap<>();
+
+    private final WorkspacePool workspacePool;
+
+    private final WorkspaceCleaner workspaceCleaner;
+
+    private final ProcessCgroups cgroups;
+
+    /**
+     * Threads streaming the input into the processes (only in {@link IoMode#PIPE} mode) and draining their console output.
+     */
+    private final ExecutorService streamThreads;
+
+    /**
+     * Thread destroying the processes of executions that exceed their timeout.
+     */
+    private final ScheduledExecutorService timeouts;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    public ExternalProcessExecutor(ExternalProcessConfig config) {
+    public ExternalProcessExecutor(ExternalProcessConfig config, MeterRegistry meterRegistry) {
         this.config = config;
+        // the cleaner must be created first, it looks for workspaces left behind before any new workspace exists
+        this.workspaceCleaner = new WorkspaceCleaner(Path.of(config.getWorkspace()), config.getCleanupQueueSize(), config.getCleanupBatchSize(),
+            config.getCleanWorkspace() && config.getSweepWorkspace(), meterRegistry);
+        this.workspacePool = config.getWorkspacePoolSize() > 0 ? new WorkspacePool(Path.of(config.getWorkspace()), config.getWorkspacePoolSize(), workspaceCleaner) : null;
+        this.cgroups = config.getCgroupRoot() != null ? new ProcessCgroups(Path.of(config.getCgroupRoot()), config.getMemoryMaxBytes(), config.getCpuMax()) : null;
+        var threadFactory = new CustomizableThreadFactory("script-io-");
+        threadFactory.setDaemon(true);
+        this.streamThreads = Executors.newCachedThreadPool(threadFactory);
+        var timeoutThreadFactory = new CustomizableThreadFactory("script-timeout-");
+        timeoutThreadFactory.setDaemon(true);
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(timeoutThreadFactory);
     }
 
     @Override
@@ -56,10 +123,13 @@ public abstract class ExternalProcessExecutor implements IExecutor {
     }
 
     public ScriptExecutionOutputDTO execute(ScriptExecution scriptExecution) throws InterruptedException {
+        var id = scriptExecution.getScriptExecutionInput().getId();
+        if (id != null) runningExecutions.put(id, scriptExecution);
         try {
             setupEnv(scriptExecution);
 
             int exitCode = executeScript(scriptExecution);
+            onScriptExecuted(scriptExecution);
 
             if (ShutdownService.isShuttingDown()) {
                 logger.warn("Script marked as WORKER_INTERNAL_ERROR since worker is shutting down!");
@@ -68,20 +138,50 @@ public abstract class ExternalProcessExecutor implements IExecutor {
 
             if (!checkOutput(scriptExecution)) {
                 return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
-                    "", ResponseStatusCode.SCRIPT_ERROR, "Script did not create output file!", exitCode);
+                    "", ResponseStatusCode.SCRIPT_ERROR, withOutputTail(scriptExecution, "Script did not create output file!"), exitCode);
             }
 
-            String output = readOutput(scriptExecution);
+            String output;
+            try {
+                output = readOutput(scriptExecution);
+            } catch (InvalidOutputException e) {
+                return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
+                    "", ResponseStatusCode.SCRIPT_ERROR, withOutputTail(scriptExecution, e.getMessage()), exitCode);
+            }
 
             return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
                 output, ResponseStatusCode.SUCCESS, "Ok", exitCode);
 
+        } catch (BadRequestException e) {
+            logger.warn("Script execution {} failed: {}", scriptExecution.getScriptExecutionInput().getId(), e.getMessage());
+            return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
+                "", ResponseStatusCode.BAD_REQUEST, e.getMessage(), 0);
+        } catch (ScriptOutOfMemoryException e) {
+            logger.warn("Script execution {} failed: {}", scriptExecution.getScriptExecutionInput().getId(), e.getMessage());
+            return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
+                "", ResponseStatusCode.SCRIPT_OUT_OF_MEMORY, e.getMessage(), 0);
+        } catch (ScriptTimeoutException e) {
+            logger.warn("Script execution {} failed: {}", scriptExecution.getScriptExecutionInput().getId(), e.getMessage());
+            return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
+                "", ResponseStatusCode.SCRIPT_TIMEOUT, e.getMessage(), 0);
+        } catch (OutputTooLargeException e) {
+            logger.warn("Script execution {} failed: {}", scriptExecution.getScriptExecutionInput().getId(), e.getMessage());
+            return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
+                "", ResponseStatusCode.OUTPUT_TOO_LARGE, e.getMessage(), 0);
         } catch (WorkerException e) {
             e.printStackTrace();
             return new ScriptExecutionOutputDTO(scriptExecution.getScriptExecutionInput().getId(),
                 "", ResponseStatusCode.WORKER_INTERNAL_ERROR, "An error occurred in the worker while processing the script.", 0);
         } finally {
-            if (config.getCleanWorkspace()) {
+            if (id != null) runningExecutions.remove(id);
+            if (scriptExecution.getCgroup() != null) {
+                cgroups.remove(scriptExecution.getCgroup());
+            }
+            if (workspacePool != null) {
+                if (scriptExecution.getWorkspace() != null) {
+                    workspacePool.release(scriptExecution.getWorkspace(), config.getCleanWorkspace());
+                }
+            } else if (config.getCleanWorkspace()) {
                 cleanWorkspace(scriptExecution);
             }
         }
@@ -94,35 +194,68 @@ public abstract class ExternalProcessExecutor implements IExecutor {
      * @throws WorkerException indicates an exception in the Java code (not the script)
      */
     protected void setupEnv(ScriptExecution scriptExecution) throws WorkerException {
-        // 1. create a workspace
-        Path workspace = Path.of(config.getWorkspace(), UUID.randomUUID().toString());
-        scriptExecution.setWorkspace(workspace);
-        try {
-            Files.createDirectories(workspace);
-        } catch (IOException e) {
-            throw new WorkerException("Cannot create workspace", e);
+        // 1. create a workspace, or take an empty one from the pool
+        Path workspace;
+        if (workspacePool != null) {
+            workspace = workspacePool.acquire();
+        } else {
+            workspace = Path.of(config.getWorkspace(), UUID.randomUUID().toString());
+            try {
+                Files.createDirectories(workspace);
+            } catch (IOException e) {
+                throw new WorkerException("Cannot create workspace", e);
+            }
         }
+        scriptExecution.setWorkspace(workspace);
 
-        // 2. write input to file
-        Path inputFile = workspace.resolve("input.json");
-        try {
-            Files.createFile(inputFile);
-            Files.writeString(inputFile, scriptExecution.getScriptExecutionInput().getInput());
-        } catch (IOException e) {
-            throw new WorkerException("Cannot create input file", e);
+        String input = scriptExecution.getScriptExecutionInput().getInput();
+        String script = getFullScript(scriptExecution);
+        checkQuota(input, script);
+
+        // 2. write input to file (the workspace is empty, therefore the file is created by writing it)
+        if (getIoMode() == IoMode.FILE) {
+            Path inputFile = workspace.resolve(getInputFileName(scriptExecution));
+            try {
+                if (getExchangeFormat(scriptExecution) == ExchangeFormat.BINARY) {
+                    ColumnarCodec.encode(input, inputFile);
+                } else {
+                    Files.writeString(inputFile, input, StandardOpenOption.CREATE_NEW);
+                }
+            } catch (JsonProcessingException e) {
+                throw new BadRequestException("Input is not valid JSON", e);
+            } catch (IOException e) {
+                throw new WorkerException("Cannot create input file", e);
+            }
         }
 
         // 3. write script to workdir
         Path scriptFile = workspace.resolve(getScriptName(scriptExecution));
         try {
-            String script = getFullScript(scriptExecution);
-            Files.createFile(scriptFile);
-            Files.writeString(scriptFile, script);
+            Files.writeString(scriptFile, script, StandardOpenOption.CREATE_NEW);
         } catch (IOException e) {
             throw new WorkerException("Cannot create script file", e);
         }
     }
 
+    private void checkQuota(String input, String script) throws BadRequestException {
+        var quota = config.getWorkspaceQuotaBytes();
+        if (quota == null) return;
+        var inputOrEmpty = input != null ? input : "";
+        // only encode the strings when the upper bound of their UTF-8 encoded size exceeds the quota
+        if (3L * (inputOrEmpty.length() + script.length()) > quota
+            && (long) inputOrEmpty.getBytes(StandardCharsets.UTF_8).length + script.getBytes(StandardCharsets.UTF_8).length > quota) {
+            throw new BadRequestException(String.format("Input and script exceed the workspace quota of %s bytes", quota));
+        }
+    }
+
+    /**
+     * @return how the input and output are exchanged with the process, the script produced by
+     * {@link #getFullScript(ScriptExecution)} must read its input and write its output accordingly.
+     */
+    protected IoMode getIoMode() {
+        return config.getIoMode();
+    }
+
     /**
      * Produces the full script to execute (including any "header" or "footer" code).
      *
@@ -147,19 +280,276 @@ public abstract class ExternalProcessExecutor implements IExecutor {
      */
     protected abstract int executeScript(ScriptExecution scriptExecution) throws WorkerException, InterruptedException;
 
+    /**
+     * Called when the script finished, before its output is read and its workspace is cleaned. Does nothing by default.
+     *
+     * @param scriptExecution the executed script
+     */
+    protected void onScriptExecuted(ScriptExecution scriptExecution) {
+    }
+
+    /**
+     * Reports the elapsed time, CPU time and peak RSS of the process tree (read from /proc) and the progress reported
+     * by the script in {@link #PROGRESS_FILE}. When the execution has a cgroup, its peak memory usage is reported
+     * instead, which also includes processes that escaped the tree and those that already exited.
+     */
+    @Override
+    public ResourceUsageDTO getResourceUsage(String scriptExecutionId) {
+        var scriptExecution = runningExecutions.get(scriptExecutionId);
+        if (scriptExecution == null) return null;
+
+        var usage = ResourceUsageDTO.builder()
+            .elapsedMillis(Duration.between(scriptExecution.getStartTime(), Instant.now()).toMillis());
+
+        var process = scriptExecution.getProcess();
+        if (process != null) {
+            var processTreeUsage = ProcessTreeUsage.read(process);
+            if (processTreeUsage != null) {
+                var cgroup = scriptExecution.getCgroup();
+                var cgroupPeakBytes = cgroup != null ? cgroups.getMemoryPeakBytes(cgroup) : null;
+                var peakRssBytes = Math.max(scriptExecution.getPeakRssBytes(),
+                    cgroupPeakBytes != null ? cgroupPeakBytes : processTreeUsage.getPeakRssBytes());
+                scriptExecution.setPeakRssBytes(peakRssBytes);
+                var cpuTimeMillis = Math.max(0, processTreeUsage.getCpuTimeMillis() - scriptExecution.getCpuTimeBaselineMillis());
+                usage.cpuTimeMillis(cpuTimeMillis).peakRssBytes(peakRssBytes);
+            }
+        }
+
+        var workspace = scriptExecution.getWorkspace();
+        if (workspace != null) {
+            try {
+                var progressFile = workspace.resolve(PROGRESS_FILE);
+                if (Files.exists(progressFile)) {
+                    var progress = Files.readString(progressFile).trim().split("\\s+", 2);
+                    usage.progress(Double.parseDouble(progress[0]));
+                    if (progress.length > 1) usage.progressMessage(progress[1]);
+                }
+            } catch (IOException | NumberFormatException e) {
+                // the script is (re-)writing the file
+            }
+        }
+        return usage.build();
+    }
+
+    /**
+     * Waits for the process to exit.
+     * Uses {@link Process#onExit()} instead of {@link Process#waitFor()}, so that a virtual thread waiting for the
+     * process is unmounted from its carrier thread instead of pinning it.
+     *
+     * The process is registered with the execution, so that its resource usage can be reported in the heartbeats.
+     * Its console output (stdout and stderr, or only stderr in {@link IoMode#PIPE} mode) is drained continuously, so
+     * that the script never blocks on a full pipe, keeping the last bytes in an {@link OutputTail}.
+     * In {@link IoMode#PIPE} mode, the input is streamed into the stdin of the process while its stdout is consumed,
+     * so that neither side blocks on a full pipe.
+     *
+     * When the execution has a timeout (see {@link ExternalProcessConfig#getTimeoutSeconds(String, Integer)}), the
+     * process tree is destroyed when it expires, which also ends the exchange through the pipes.
+     *
+     * @param scriptExecution the script being executed
+     * @param process         the process to wait for
+     * @return exit code of the process
+     * @throws ScriptTimeoutException when the process was destroyed because it exceeded its timeout
+     * @throws WorkerException      when the exit of the process could not be awaited
+     * @throws InterruptedException when the thread is interrupted when waiting for the process to finish.
+     */
+    protected int waitFor(ScriptExecution scriptExecution, Process process) throws WorkerException, InterruptedException {
+        scriptExecution.setProcess(process.toHandle());
+        var outputTail = new OutputTail(config.getOutputTailBytes());
+        if (getIoMode() == IoMode.FILE) {
+            outputTail.drain(process.getInputStream(), streamThreads);
+        }
+        outputTail.drain(process.getErrorStream(), streamThreads);
+        scriptExecution.setOutputTail(outputTail);
+
+        var timeoutSeconds = getTimeoutSeconds(scriptExecution);
+        var timeout = timeoutSeconds == null ? null : timeouts.schedule(() -> {
+            scriptExecution.setTimedOut(true);
+            destroyProcessTree(scriptExecution, process);
+        }, timeoutSeconds, TimeUnit.SECONDS);
+
+        try {
+            if (getIoMode() == IoMode.PIPE) {
+                exchangeThroughPipes(scriptExecution, process);
+            }
+            var exitCode = process.onExit().get().exitValue();
+            if (scriptExecution.isTimedOut()) {
+                throw new ScriptTimeoutException(timeoutSeconds);
+            }
+            if (scriptExecution.getCgroup() != null && cgroups.isOomKilled(scriptExecution.getCgroup())) {
+                throw new ScriptOutOfMemoryException(config.getMemoryMaxBytes());
+            }
+            return exitCode;
+        } catch (ExecutionException e) {
+            throw new WorkerException("Internal error while waiting for the script to finish", e.getCause());
+        } finally {
+            if (timeout != null) timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Registers a process that already ran before this execution (e.g. a pooled process) with the execution, so that
+     * its resource usage is reported in the heartbeats as from now, instead of since the process started. The CPU time
+     * used so far is subtracted and the peak RSS of the process tree is reset.
+     *
+     * @param scriptExecution the script being executed
+     * @param process         the process executing the script
+     */
+    protected void setReusedProcess(ScriptExecution scriptExecution, ProcessHandle process) {
+        var processTreeUsage = ProcessTreeUsage.read(process);
+        scriptExecution.setCpuTimeBaselineMillis(processTreeUsage != null ? processTreeUsage.getCpuTimeMillis() : 0);
+        ProcessTreeUsage.resetPeak(process);
+        scriptExecution.setProcess(process);
+    }
+
+    /**
+     * @return the timeout of the execution in seconds, or null when it has no timeout, see
+     * {@link ExternalProcessConfig#getTimeoutSeconds(String, Integer)}.
+     */
+    protected Integer getTimeoutSeconds(ScriptExecution scriptExecution) {
+        var input = scriptExecution.getScriptExecutionInput();
+        return config.getTimeoutSeconds(input.getLanguage(), input.getTimeoutSeconds());
+    }
+
+    /**
+     * Starts the process of the execution, in its own cgroup when phaedra2.script-engine-worker.cgroup-root is set.
+     *
+     * @param scriptExecution the script being executed
+     * @param builder         the builder of the process executing the script
+     * @return the started process, see {@link #waitFor(ScriptExecution, Process)}
+     * @throws WorkerException when the cgroup could not be created
+     * @throws IOException     when the process could not be started
+     */
+    protected Process startProcess(ScriptExecution scriptExecution, ProcessBuilder builder) throws WorkerException, IOException {
+        if (cgroups != null) {
+            var cgroup = cgroups.create(scriptExecution.getWorkspace().getFileName() + "-" + UUID.randomUUID());
+            scriptExecution.setCgroup(cgroup);
+            builder.command(cgroups.wrap(cgroup, builder.command()));
+        }
+        return builder.start();
+    }
+
+    /**
+     * @return the message, followed by the last console output of the script when
+     * phaedra2.script-engine-worker.attach-output-tail is enabled.
+     */
+    private String withOutputTail(ScriptExecution scriptExecution, String message) throws InterruptedException {
+        var outputTail = scriptExecution.getOutputTail();
+        if (!config.getAttachOutputTail() || outputTail == null) return message;
+
+        var tail = outputTail.get(OUTPUT_TAIL_MAX_WAIT);
+        if (tail.isBlank()) return message;
+        return message + "\n" + tail;
+    }
+
+    /**
+     * Destroys the process and the processes it started (e.g. forked by R), which would otherwise keep running.
+     * The descendants are listed first, since they are no longer descendants once the process is gone. When the
+     * execution has a cgroup, processes that escaped the tree (e.g. daemonized) are killed as well.
+     */
+    protected void destroyProcessTree(ScriptExecution scriptExecution, Process process) {
+        if (scriptExecution.getCgroup() != null) {
+            cgroups.kill(scriptExecution.getCgroup());
+        }
+        var descendants = process.descendants().collect(Collectors.toList());
+        process.destroyForcibly();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    private void exchangeThroughPipes(ScriptExecution scriptExecution, Process process) throws WorkerException {
+        var input = scriptExecution.getScriptExecutionInput().getInput();
+        var writer = CompletableFuture.runAsync(() -> {
+            try (var stdin = process.getOutputStream()) {
+                if (input != null) stdin.write(input.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // the process exited without reading its input, its exit code and output tell what happened
+                throw new UncheckedIOException(e);
+            }
+        }, streamThreads);
+        try (var stdout = process.getInputStream()) {
+            scriptExecution.setOutput(readBounded(stdout));
+        } catch (OutputTooLargeException e) {
+            // stop the script, it would otherwise block on the full pipe
+            destroyProcessTree(scriptExecution, process);
+            throw e;
+        } catch (IOException e) {
+            throw new WorkerException("Cannot read output of the script", e);
+        }
+
+        if (writer.isCompletedExceptionally()) {
+            logger.warn("Script did not read its complete input");
+        }
+    }
+
+    /**
+     * Reads the stream in chunks, failing as soon as it exceeds the maximum output size instead of buffering all of it.
+     */
+    private String readBounded(InputStream stream) throws IOException, OutputTooLargeException {
+        var maxOutputBytes = config.getMaxOutputBytes();
+        var output = new ByteArrayOutputStream();
+        var chunk = new byte[65536];
+        int read;
+        while ((read = stream.read(chunk)) != -1) {
+            if (output.size() + read > maxOutputBytes) {
+                throw new OutputTooLargeException(maxOutputBytes);
+            }
+            output.write(chunk, 0, read);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the format in which the input and output are exchanged with the script, always
+     * {@link ExchangeFormat#JSON} in {@link IoMode#PIPE} mode.
+     */
+    protected ExchangeFormat getExchangeFormat(ScriptExecution scriptExecution) {
+        var exchangeFormat = scriptExecution.getScriptExecutionInput().getExchangeFormat();
+        if (getIoMode() == IoMode.PIPE || exchangeFormat == null) return ExchangeFormat.JSON;
+        return exchangeFormat;
+    }
+
+    /**
+     * @return the name of the file in the workspace containing the input, see {@link ColumnarCodec} for the binary format.
+     */
+    protected String getInputFileName(ScriptExecution scriptExecution) {
+        return getExchangeFormat(scriptExecution) == ExchangeFormat.BINARY ? "input.bin" : "input.json";
+    }
+
+    /**
+     * @return the name of the file in the workspace to which the script writes its output.
+     */
+    protected String getOutputFileName(ScriptExecution scriptExecution) {
+        return getExchangeFormat(scriptExecution) == ExchangeFormat.BINARY ? "output.bin" : "output.json";
+    }
+
     protected Boolean checkOutput(ScriptExecution scriptExecution) {
-        return Files.exists(scriptExecution.getWorkspace().resolve("output.json"));
+        if (getIoMode() == IoMode.PIPE) {
+            return scriptExecution.getOutput() != null && !scriptExecution.getOutput().isBlank();
+        }
+        return Files.exists(scriptExecution.getWorkspace().resolve(getOutputFileName(scriptExecution)));
     }
 
     /**
      * Reads the output produced by the script.
      *
      * @param scriptExecution the script being executed
+     * @throws InvalidOutputException when the script produced an output file that cannot be read
      * @throws WorkerException indicates an exception in the Java code (not the script)
      */
     protected String readOutput(ScriptExecution scriptExecution) throws WorkerException {
+        if (getIoMode() == IoMode.PIPE) {
+            return scriptExecution.getOutput();
+        }
         try {
-            return Files.readString(scriptExecution.getWorkspace().resolve("output.json"));
+            // check the size before reading, so that a runaway script cannot exhaust the heap of the worker
+            var outputFile = scriptExecution.getWorkspace().resolve(getOutputFileName(scriptExecution));
+            if (Files.size(outputFile) > config.getMaxOutputBytes()) {
+                throw new OutputTooLargeException(config.getMaxOutputBytes());
+            }
+            if (getExchangeFormat(scriptExecution) == ExchangeFormat.BINARY) {
+                return ColumnarCodec.decode(outputFile, config.getMaxOutputBytes());
+            }
+            // reads the file into a single buffer, which is used as is by the String when the output is ASCII
+            return Files.readString(outputFile);
         } catch (IOException e) {
             throw new WorkerException("Cannot read output file", e);
         }
@@ -167,15 +557,13 @@ public abstract class ExternalProcessExecutor implements IExecutor {
 
     /**
      * Cleans the environment (i.e. workspace) in which a script was executed.
-     * Counterpart of @{link setupEnv}
+     * Counterpart of @{link setupEnv}. The workspace is deleted in the background, see {@link WorkspaceCleaner}.
      *
      * @param scriptExecution the executed script
      */
     protected void cleanWorkspace(ScriptExecution scriptExecution) {
-        try {
-            FileSystemUtils.deleteRecursively(scriptExecution.getWorkspace());
-        } catch (IOException e) {
-            logger.warn("Cannot remove workspace", e);
+        if (scriptExecution.getWorkspace() != null) {
+            workspaceCleaner.delete(scriptExecution.getWorkspace());
         }
     }
 
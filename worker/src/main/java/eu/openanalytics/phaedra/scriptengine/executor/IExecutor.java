@@ -21,6 +21,7 @@
 package eu.openanalytics.phaedra.scriptengine.executor;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import eu.openanalytics.phaedra.scriptengine.dto.ResourceUsageDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
 
@@ -38,4 +39,14 @@ public interface IExecutor {
      */
     ScriptExecutionOutputDTO execute(ScriptExecutionInputDTO scriptExecution) throws InterruptedException, JsonProcessingException;
 
+    /**
+     * Reports the resources used so far by a running script, included in its heartbeats.
+     *
+     * @param scriptExecutionId the id of the script execution
+     * @return the resources used by the script, or null when not running or not supported by this executor
+     */
+    default ResourceUsageDTO getResourceUsage(String scriptExecutionId) {
+        return null;
+    }
+
 }
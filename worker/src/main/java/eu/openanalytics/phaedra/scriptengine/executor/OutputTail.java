@@ -0,0 +1,134 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drains the stdout and/or stderr of a process, keeping only their last bytes in a ring buffer.
+ * Since the streams are consumed continuously, a script writing a lot of console output never blocks on a full pipe.
+ * Processes that are re-used between executions drain their streams themselves and {@link #write(byte[], int)} the
+ * output of the current execution into its tail.
+ */
+public class OutputTail {
+
+    private final byte[] buffer;
+    private long written = 0;
+
+    private final List<CompletableFuture<Void>> drains = new ArrayList<>();
+
+    /**
+     * @param capacity the number of bytes to keep, 0 to discard everything
+     */
+    public OutputTail(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Consumes the stream until it is closed, i.e. until the process (and every process sharing the stream) exited.
+     */
+    void drain(InputStream stream, Executor executor) {
+        drains.add(CompletableFuture.runAsync(() -> {
+            var chunk = new byte[8192];
+            try (stream) {
+                int read;
+                while ((read = stream.read(chunk)) != -1) {
+                    write(chunk, read);
+                }
+            } catch (IOException e) {
+                // the process exited
+            }
+        }, executor));
+    }
+
+    /**
+     * Adds the first length bytes of the chunk to the tail.
+     */
+    public synchronized void write(byte[] chunk, int length) {
+        if (buffer.length == 0) return;
+        // only the last bytes of a chunk larger than the buffer are kept
+        var offset = Math.max(0, length - buffer.length);
+        written += offset;
+        for (int i = offset; i < length; ) {
+            var position = (int) (written % buffer.length);
+            var count = Math.min(length - i, buffer.length - position);
+            System.arraycopy(chunk, i, buffer, position, count);
+            written += count;
+            i += count;
+        }
+    }
+
+    /**
+     * Adds the last bytes of the file to the tail, e.g. the console output that a process wrote to a file. Only the
+     * bytes that fit in the tail are read.
+     */
+    public void writeFile(Path file) throws IOException {
+        if (buffer.length == 0) return;
+        try (var channel = FileChannel.open(file)) {
+            var size = channel.size();
+            var start = Math.max(0, size - buffer.length);
+            var tail = ByteBuffer.allocate((int) (size - start));
+            while (tail.hasRemaining() && channel.read(tail, start + tail.position()) != -1) {
+                // the file may be read in multiple parts
+            }
+            synchronized (this) {
+                written += start;
+                write(tail.array(), tail.position());
+            }
+        }
+    }
+
+    /**
+     * @param maxWait how long to wait for the streams to be closed, they stay open when the script left processes behind
+     * @return the last bytes written to the streams, prefixed by "..." when older bytes were discarded
+     */
+    public String get(Duration maxWait) throws InterruptedException {
+        try {
+            CompletableFuture.allOf(drains.toArray(CompletableFuture[]::new)).get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // return what was received so far
+        }
+        synchronized (this) {
+            if (written <= buffer.length) {
+                return new String(buffer, 0, (int) written, StandardCharsets.UTF_8);
+            }
+            var position = (int) (written % buffer.length);
+            var tail = new byte[buffer.length];
+            System.arraycopy(buffer, position, tail, 0, buffer.length - position);
+            System.arraycopy(buffer, 0, tail, buffer.length - position, position);
+            return "..." + new String(tail, StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places script processes in their own cgroup (v2), limiting the memory and CPU they can use (Linux only).
+ * <p>
+ * The root must be a cgroup delegated to the worker that does not contain processes itself (e.g. the worker runs in a
+ * sibling cgroup), since cgroup v2 only allows enabling controllers for the children of such a cgroup.
+ */
+class ProcessCgroups {
+
+    private static final long CPU_PERIOD_MICROS = 100000;
+
+    private final Path root;
+    private final Long memoryMaxBytes;
+    private final Double cpuMax;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    ProcessCgroups(Path root, Long memoryMaxBytes, Double cpuMax) {
+        this.root = root;
+        this.memoryMaxBytes = memoryMaxBytes;
+        this.cpuMax = cpuMax;
+        try {
+            Files.writeString(root.resolve("cgroup.subtree_control"), "+memory +cpu");
+        } catch (IOException e) {
+            logger.warn("Cannot enable the memory and cpu controllers in " + root + ", limits may not be applied", e);
+        }
+    }
+
+    /**
+     * Creates a cgroup with the configured limits. Swap is disabled, so that a script exceeding its memory limit is
+     * killed instead of slowing down the node.
+     */
+    Path create(String name) throws WorkerException {
+        var cgroup = root.resolve(name);
+        try {
+            Files.createDirectory(cgroup);
+            if (memoryMaxBytes != null) {
+                Files.writeString(cgroup.resolve("memory.max"), Long.toString(memoryMaxBytes));
+                Files.writeString(cgroup.resolve("memory.swap.max"), "0");
+            }
+            if (cpuMax != null) {
+                Files.writeString(cgroup.resolve("cpu.max"), String.format("%d %d", Math.round(cpuMax * CPU_PERIOD_MICROS), CPU_PERIOD_MICROS));
+            }
+        } catch (IOException e) {
+            remove(cgroup);
+            throw new WorkerException("Cannot create cgroup " + cgroup, e);
+        }
+        return cgroup;
+    }
+
+    /**
+     * @return the command, prefixed such that the process moves itself into the cgroup before executing the command.
+     * Therefore, every process the command starts is part of the cgroup as well.
+     */
+    List<String> wrap(Path cgroup, List<String> command) {
+        var wrapped = new ArrayList<String>();
+        wrapped.add("/bin/sh");
+        wrapped.add("-c");
+        wrapped.add("echo $$ > \"$0\" && exec \"$@\"");
+        wrapped.add(cgroup.resolve("cgroup.procs").toString());
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * @return whether a process of the cgroup was killed because the cgroup exceeded its memory limit.
+     */
+    boolean isOomKilled(Path cgroup) {
+        try {
+            for (var line : Files.readAllLines(cgroup.resolve("memory.events"))) {
+                if (line.startsWith("oom_kill ")) {
+                    return Long.parseLong(line.substring("oom_kill ".length()).trim()) > 0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Cannot read memory events of cgroup " + cgroup, e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the highest memory usage of the cgroup since it was created, or null when not available (memory.peak
+     * requires Linux 5.19).
+     */
+    Long getMemoryPeakBytes(Path cgroup) {
+        try {
+            return Long.parseLong(Files.readString(cgroup.resolve("memory.peak")).trim());
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Kills all processes of the cgroup, including processes that are no longer descendants of the script process.
+     */
+    void kill(Path cgroup) {
+        try {
+            Files.writeString(cgroup.resolve("cgroup.kill"), "1");
+        } catch (IOException e) {
+            // cgroup.kill requires Linux 5.14, the process tree is destroyed as well
+        }
+    }
+
+    /**
+     * Kills the remaining processes of the cgroup and removes it.
+     */
+    void remove(Path cgroup) {
+        kill(cgroup);
+        // the cgroup can only be removed once the killed processes are gone
+        for (int attempt = 0; attempt < 10; attempt++) {
+            try {
+                Files.deleteIfExists(cgroup);
+                return;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        logger.warn("Cannot remove cgroup {}", cgroup);
+    }
+
+}
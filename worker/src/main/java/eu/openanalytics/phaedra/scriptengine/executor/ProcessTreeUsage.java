@@ -0,0 +1,108 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Reads the resources used by a process and its descendants from /proc (Linux only).
+ * Resources of descendants that already exited are only included as far as the kernel accounts them to their parent
+ * (i.e. when the parent waited for them).
+ * <p>
+ * The peak RSS is the sum of the peak RSS (VmHWM) of every process, which is tracked by the kernel and therefore
+ * includes peaks between two readings. Since the processes need not peak at the same time, the sum is an upper bound.
+ */
+class ProcessTreeUsage {
+
+    /**
+     * Clock ticks per second used by /proc/[pid]/stat, this is 100 on all common Linux platforms.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private static final Path PROC = Path.of("/proc");
+
+    private long cpuTimeMillis = 0;
+    private long peakRssBytes = 0;
+
+    private ProcessTreeUsage() {
+    }
+
+    /**
+     * @return the usage of the process tree, or null when /proc is not available.
+     */
+    static ProcessTreeUsage read(ProcessHandle process) {
+        if (!Files.isDirectory(PROC)) return null;
+
+        var usage = new ProcessTreeUsage();
+        Stream.concat(Stream.of(process), process.descendants()).forEach(p -> usage.add(p.pid()));
+        return usage;
+    }
+
+    long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    /**
+     * Resets the peak RSS of the process and its descendants to their current RSS, e.g. when a process is re-used by
+     * another execution. Requires Linux 4.0, on older kernels the peak RSS since the start of the process is reported.
+     */
+    static void resetPeak(ProcessHandle process) {
+        if (!Files.isDirectory(PROC)) return;
+        Stream.concat(Stream.of(process), process.descendants()).forEach(p -> {
+            try {
+                Files.writeString(PROC.resolve(p.pid() + "/clear_refs"), "5");
+            } catch (IOException e) {
+                // the process exited in the meantime, or the kernel does not support resetting the peak
+            }
+        });
+    }
+
+    private void add(long pid) {
+        try {
+            // the name of the command (2nd field) may contain spaces, therefore start parsing after its closing parenthesis
+            var stat = Files.readString(PROC.resolve(pid + "/stat"));
+            var fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            // utime, stime, cutime and cstime are fields 14 to 17, i.e. at index 11 to 14 after the command
+            long ticks = 0;
+            for (int i = 11; i <= 14; i++) {
+                ticks += Long.parseLong(fields[i]);
+            }
+            cpuTimeMillis += ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+
+            for (var line : Files.readAllLines(PROC.resolve(pid + "/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    peakRssBytes += Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the process exited in the meantime
+        }
+    }
+
+}
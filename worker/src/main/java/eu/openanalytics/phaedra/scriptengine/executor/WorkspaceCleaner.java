@@ -0,0 +1,197 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes workspaces on a background thread, so that the output of a script can be published without waiting for its
+ * workspace to be removed.
+ * <p>
+ * Workspaces are queued in a bounded queue and deleted in batches. When the queue is full, the workspace is deleted
+ * by the calling thread instead. Workspaces left behind by a previous run of the worker (e.g. after a crash) can be
+ * deleted at startup, as long as no other worker uses the same directory.
+ */
+public class WorkspaceCleaner {
+
+    private final BlockingQueue<Task> queue;
+    private final int batchSize;
+
+    private final Timer cleanupTimer;
+    private final Counter overflowCounter;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * @param root      the directory containing the workspaces
+     * @param queueSize the maximum number of workspaces waiting to be deleted
+     * @param batchSize the maximum number of workspaces deleted per batch
+     * @param sweep     whether to delete the workspaces left behind by a previous run, must be called before any
+     *                  workspace of this run is created and only when no other worker creates workspaces in the root
+     */
+    public WorkspaceCleaner(Path root, int queueSize, int batchSize, boolean sweep, MeterRegistry meterRegistry) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+
+        cleanupTimer = Timer.builder("phaedra2.scriptengine.worker.workspace.cleanup")
+            .description("Time spent deleting a workspace in the background")
+            .register(meterRegistry);
+        overflowCounter = Counter.builder("phaedra2.scriptengine.worker.workspace.cleanup.overflow")
+            .description("Number of workspaces deleted on the execution thread because the cleanup queue was full")
+            .register(meterRegistry);
+        Gauge.builder("phaedra2.scriptengine.worker.workspace.cleanup.queued", queue, BlockingQueue::size)
+            .description("Number of workspaces waiting to be deleted")
+            .register(meterRegistry);
+
+        // list the orphans before starting, the workspaces of this run are created afterwards
+        var orphans = sweep ? findOrphans(root) : List.<Path>of();
+        if (!orphans.isEmpty()) {
+            logger.info("Deleting {} workspaces left behind in {}", orphans.size(), root);
+        }
+
+        var thread = new Thread(() -> run(orphans), "workspace-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Deletes the workspace in the background.
+     */
+    public void delete(Path workspace) {
+        submit(new Task(workspace, false, null));
+    }
+
+    /**
+     * Removes the contents of the workspace in the background, keeping the directory itself.
+     *
+     * @param onReset called with true when the workspace is empty again, or with false when its contents could not be
+     *                removed or when it is no longer empty afterwards (e.g. a process that escaped the process tree of
+     *                the script is still writing into it)
+     */
+    public void reset(Path workspace, Consumer<Boolean> onReset) {
+        submit(new Task(workspace, true, onReset));
+    }
+
+    private void submit(Task task) {
+        if (!queue.offer(task)) {
+            overflowCounter.increment();
+            process(task);
+        }
+    }
+
+    private void run(List<Path> orphans) {
+        for (var orphan : orphans) {
+            process(new Task(orphan, false, null));
+        }
+
+        var batch = new ArrayList<Task>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (var task : batch) {
+                process(task);
+            }
+            batch.clear();
+        }
+    }
+
+    private void process(Task task) {
+        var done = cleanupTimer.record(() -> {
+            try {
+                if (task.keepDirectory) {
+                    try (var entries = Files.list(task.workspace)) {
+                        for (var entry : (Iterable<Path>) entries::iterator) {
+                            FileSystemUtils.deleteRecursively(entry);
+                        }
+                    }
+                    try (var entries = Files.list(task.workspace)) {
+                        return entries.findAny().isEmpty();
+                    }
+                } else {
+                    FileSystemUtils.deleteRecursively(task.workspace);
+                }
+                return true;
+            } catch (IOException e) {
+                logger.warn("Cannot remove workspace", e);
+                return false;
+            }
+        });
+        if (task.onDone != null) {
+            task.onDone.accept(Boolean.TRUE.equals(done));
+        }
+    }
+
+    /**
+     * @return the directories that are named like a workspace, see {@link ExternalProcessExecutor}.
+     */
+    private List<Path> findOrphans(Path root) {
+        try (var entries = Files.list(root)) {
+            return entries.filter(p -> Files.isDirectory(p) && isWorkspaceName(p.getFileName().toString())).collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("Cannot list workspaces left behind in " + root, e);
+            return List.of();
+        }
+    }
+
+    private static boolean isWorkspaceName(String name) {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static class Task {
+
+        private final Path workspace;
+        private final boolean keepDirectory;
+        private final Consumer<Boolean> onDone;
+
+        private Task(Path workspace, boolean keepDirectory, Consumer<Boolean> onDone) {
+            this.workspace = workspace;
+            this.keepDirectory = keepDirectory;
+            this.onDone = onDone;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import eu.openanalytics.phaedra.scriptengine.exception.WorkerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Pool of workspace directories that are created up-front and re-used between executions, so that creating and
+ * deleting the directory is not on the critical path of every execution.
+ * <p>
+ * A released workspace is reset by removing its contents in the background, keeping the directory itself, after which
+ * it becomes available again. A workspace that cannot be reset is removed from the pool and replaced by a new one. When
+ * all pooled workspaces are in use, a temporary workspace is created, which is deleted again when released.
+ */
+public class WorkspacePool {
+
+    private final Path root;
+    private final WorkspaceCleaner cleaner;
+    private final Set<Path> pooled = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedDeque<Path> free = new ConcurrentLinkedDeque<>();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public WorkspacePool(Path root, int size, WorkspaceCleaner cleaner) {
+        this.root = root;
+        this.cleaner = cleaner;
+        for (int i = 0; i < size; i++) {
+            addToPool();
+        }
+        logger.info("Created pool of {} workspaces in {}", pooled.size(), root);
+    }
+
+    /**
+     * @return an empty workspace
+     */
+    public Path acquire() throws WorkerException {
+        var workspace = free.poll();
+        if (workspace != null) return workspace;
+        return createWorkspace();
+    }
+
+    /**
+     * Resets the workspace and returns it to the pool.
+     *
+     * @param workspace a workspace obtained from {@link #acquire()}
+     * @param clean     false when the workspace must be kept as is (e.g. for debugging), in which case it is replaced
+     *                  by a new workspace in the pool
+     */
+    public void release(Path workspace, boolean clean) {
+        if (!pooled.contains(workspace)) {
+            if (clean) cleaner.delete(workspace);
+            return;
+        }
+
+        if (!clean) {
+            pooled.remove(workspace);
+            addToPool();
+            return;
+        }
+
+        cleaner.reset(workspace, reset -> {
+            if (reset) {
+                free.push(workspace);
+                return;
+            }
+            // never hand out a workspace that may still contain (or receive) files of the previous execution
+            logger.warn("Cannot reset workspace {}, replacing it by a new workspace", workspace);
+            pooled.remove(workspace);
+            cleaner.delete(workspace);
+            addToPool();
+        });
+    }
+
+    private void addToPool() {
+        try {
+            var workspace = createWorkspace();
+            pooled.add(workspace);
+            free.push(workspace);
+        } catch (WorkerException e) {
+            logger.warn("Cannot create pooled workspace", e);
+        }
+    }
+
+    private Path createWorkspace() throws WorkerException {
+        var workspace = root.resolve(UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(workspace);
+        } catch (IOException e) {
+            throw new WorkerException("Cannot create workspace", e);
+        }
+        return workspace;
+    }
+
+}
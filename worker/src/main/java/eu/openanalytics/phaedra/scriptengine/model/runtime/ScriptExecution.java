@@ -21,8 +21,10 @@
 package eu.openanalytics.phaedra.scriptengine.model.runtime;
 
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.executor.OutputTail;
 
 import java.nio.file.Path;
+import java.time.Instant;
 
 /**
  * POJO holding information related to the execution of a script.
@@ -32,12 +34,32 @@ public class ScriptExecution {
 
     private final ScriptExecutionInputDTO scriptExecutionInput;
 
+    private final Instant startTime = Instant.now();
+
     private Path workspace;
 
+    private volatile ProcessHandle process;
+
+    private volatile long peakRssBytes;
+
+    private volatile long cpuTimeBaselineMillis;
+
+    private String output;
+
+    private volatile boolean timedOut;
+
+    private volatile Path cgroup;
+
+    private volatile OutputTail outputTail;
+
     public ScriptExecution(ScriptExecutionInputDTO scriptExecutionInput) {
         this.scriptExecutionInput = scriptExecutionInput;
     }
 
+    public Instant getStartTime() {
+        return startTime;
+    }
+
     public ScriptExecutionInputDTO getScriptExecutionInput() {
         return scriptExecutionInput;
     }
@@ -50,4 +72,82 @@ public class ScriptExecution {
         this.workspace = workspace;
     }
 
+    /**
+     * @return the external process executing the script, or null when it is not started (yet).
+     */
+    public ProcessHandle getProcess() {
+        return process;
+    }
+
+    public void setProcess(ProcessHandle process) {
+        this.process = process;
+    }
+
+    /**
+     * @return the highest peak resident set size of the process tree (or memory usage of its cgroup) reported so far.
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public void setPeakRssBytes(long peakRssBytes) {
+        this.peakRssBytes = peakRssBytes;
+    }
+
+    /**
+     * @return the CPU time the process tree used before this execution started, only non-zero when the process is
+     * re-used between executions (e.g. a pooled R process).
+     */
+    public long getCpuTimeBaselineMillis() {
+        return cpuTimeBaselineMillis;
+    }
+
+    public void setCpuTimeBaselineMillis(long cpuTimeBaselineMillis) {
+        this.cpuTimeBaselineMillis = cpuTimeBaselineMillis;
+    }
+
+    /**
+     * @return the output received from the process, only used when the output is exchanged through a pipe.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    /**
+     * @return whether the process was destroyed because the execution exceeded its timeout.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return the cgroup containing the processes of this execution, or null when cgroups are not used.
+     */
+    public Path getCgroup() {
+        return cgroup;
+    }
+
+    public void setCgroup(Path cgroup) {
+        this.cgroup = cgroup;
+    }
+
+    /**
+     * @return the last console output of the process, or null when it is not started (yet).
+     */
+    public OutputTail getOutputTail() {
+        return outputTail;
+    }
+
+    public void setOutputTail(OutputTail outputTail) {
+        this.outputTail = outputTail;
+    }
+
 }
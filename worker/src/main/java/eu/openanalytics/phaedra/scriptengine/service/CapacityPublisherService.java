@@ -0,0 +1,118 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.EVENT_WORKER_CAPACITY;
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.TOPIC_SCRIPTENGINE;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.WorkerCapacityDTO;
+import eu.openanalytics.phaedra.scriptengine.event.ScriptProcessedEvent;
+
+/**
+ * Periodically advertises the capacity of this worker (free slots, queue depth, average execution time and load),
+ * so that producers and autoscalers do not have to guess.
+ */
+@Service
+public class CapacityPublisherService {
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final EnvConfig envConfig;
+    private final ExecutionSlotService executionSlotService;
+    private final ScheduledExecutorService scheduler;
+
+    private long completedExecutions = 0;
+    private long completedExecutionMillis = 0;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public CapacityPublisherService(KafkaTemplate<String, Object> kafkaTemplate, EnvConfig envConfig, ExecutionSlotService executionSlotService) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.envConfig = envConfig;
+        this.executionSlotService = executionSlotService;
+
+        var threadFactory = new CustomizableThreadFactory("capacity-publisher-");
+        threadFactory.setDaemon(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        var interval = envConfig.getCapacityInterval() * 1000L;
+        if (interval > 0) {
+            // start at a random phase of the interval, so that workers started together do not publish at the same instant
+            scheduler.scheduleAtFixedRate(this::publishCapacity, ThreadLocalRandom.current().nextLong(interval), interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @EventListener
+    public synchronized void onScriptProcessed(ScriptProcessedEvent event) {
+        completedExecutions++;
+        completedExecutionMillis += event.getExecutionTime().toMillis();
+    }
+
+    private void publishCapacity() {
+        try {
+            Long averageExecutionMillis;
+            synchronized (this) {
+                averageExecutionMillis = completedExecutions > 0 ? completedExecutionMillis / completedExecutions : null;
+                completedExecutions = 0;
+                completedExecutionMillis = 0;
+            }
+
+            var totalSlots = executionSlotService.getTotalSlots();
+            var capacity = WorkerCapacityDTO.builder()
+                .workerId(envConfig.getWorkerId())
+                .language(envConfig.getLanguage())
+                .poolName(envConfig.getPoolName())
+                .version(envConfig.getVersion())
+                .timestamp(System.currentTimeMillis())
+                .totalSlots(totalSlots)
+                .freeSlots(executionSlotService.getFreeSlots())
+                .queueDepth(executionSlotService.getQueueDepth())
+                .averageExecutionMillis(averageExecutionMillis)
+                .load((double) executionSlotService.getInFlight() / totalSlots)
+                .lanes(executionSlotService.getLaneCapacity())
+                .build();
+            kafkaTemplate.send(TOPIC_SCRIPTENGINE, EVENT_WORKER_CAPACITY, capacity);
+            logger.debug("Sent capacity {}", capacity);
+        } catch (Exception e) {
+            logger.warn("Failed to send capacity", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.util.regex.Pattern;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.event.ScriptProcessedEvent;
+import eu.openanalytics.phaedra.scriptengine.event.ScriptReceivedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the time script executions spend in the queue, executing and in total, per language and formula.
+ */
+@Service
+public class ExecutionMetricsService {
+
+    /**
+     * Scripts that look like a formula name (e.g. JavaStat::zprime) are used as tag, other scripts (e.g. R code) are
+     * tagged as "script" to keep the number of time series bounded.
+     */
+    private static final Pattern FORMULA_PATTERN = Pattern.compile("^[\\w.:-]{1,64}$");
+
+    private final MeterRegistry meterRegistry;
+
+    public ExecutionMetricsService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener
+    public void onScriptReceived(ScriptReceivedEvent event) {
+        Timer.builder("phaedra2.scriptengine.worker.executions.queue.wait")
+            .description("Time between the submission of a request and the start of its execution")
+            .tags(getTags(event.getScriptExecutionInput()))
+            .register(meterRegistry)
+            .record(event.getTimeInQueue());
+    }
+
+    @EventListener
+    public void onScriptProcessed(ScriptProcessedEvent event) {
+        var tags = getTags(event.getScriptExecutionInput());
+        Timer.builder("phaedra2.scriptengine.worker.executions.duration")
+            .description("Time spent executing a script")
+            .tags(tags.and("status", event.getStatusCode() != null ? event.getStatusCode().name() : "NONE"))
+            .register(meterRegistry)
+            .record(event.getExecutionTime());
+        Timer.builder("phaedra2.scriptengine.worker.executions.latency")
+            .description("Time between the submission of a request and the end of its execution")
+            .tags(tags)
+            .register(meterRegistry)
+            .record(event.getTotalTime());
+    }
+
+    private static Tags getTags(ScriptExecutionInputDTO input) {
+        var language = input.getLanguage() != null ? input.getLanguage().toLowerCase() : "unknown";
+        var script = input.getScript() != null ? input.getScript().trim() : "";
+        var formula = FORMULA_PATTERN.matcher(script).matches() ? script : "script";
+        return Tags.of("language", language, "formula", formula);
+    }
+
+}
@@ -0,0 +1,371 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.stereotype.Service;
+
+import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.config.ExecutionConfig;
+import eu.openanalytics.phaedra.scriptengine.config.KafkaConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.LaneCapacityDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import eu.openanalytics.phaedra.scriptengine.event.ScriptProcessedEvent;
+import eu.openanalytics.phaedra.scriptengine.event.ScriptReceivedEvent;
+import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
+import eu.openanalytics.phaedra.scriptengine.executor.IExecutorRegistration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Executes scripts in a bounded number of execution slots.
+ * When the configured executor does not allow concurrency, a single slot is used so that scripts stay serialized.
+ * <p>
+ * Every lane served by the worker has its own queue and may use at most its weighted share of the slots, so that
+ * e.g. background reprocessing never occupies the slots needed by interactive requests. When a slot becomes free, it
+ * is given to the lane using the smallest part of its share.
+ * <p>
+ * Slots are not lent out: a lane never uses more than its share, even while the other lanes are idle. Otherwise a
+ * long-running script of e.g. the background lane would still occupy a borrowed slot when interactive requests arrive.
+ * <p>
+ * Submitting a script never blocks. When the number of queued and running scripts (in-flight) of a lane exceeds its
+ * threshold, or the estimated memory used by all inputs exceeds the configured threshold, the listener container of
+ * the lane is paused. It keeps polling (so that no rebalance is triggered), but does not receive new records until the
+ * load of the lane dropped to half of the thresholds. Since every lane has its own container, pausing one lane never
+ * holds back the requests of another lane.
+ */
+@Service
+public class ExecutionSlotService {
+
+    private final IExecutor executor;
+    private final HeartbeatSenderService heartbeatSenderService;
+    private final KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    private final int totalSlots;
+    private final ExecutorService executorService;
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+
+    private final long maxBufferedBytes;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private int freeSlots;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public ExecutionSlotService(IExecutor executor, IExecutorRegistration executorRegistration, EnvConfig envConfig, ExecutionConfig executionConfig,
+                                HeartbeatSenderService heartbeatSenderService, KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry, ApplicationEventPublisher applicationEventPublisher, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.heartbeatSenderService = heartbeatSenderService;
+        this.kafkaListenerEndpointRegistry = kafkaListenerEndpointRegistry;
+        this.applicationEventPublisher = applicationEventPublisher;
+
+        totalSlots = executorRegistration.allowConcurrency() ? executionConfig.getSlots() : 1;
+        freeSlots = totalSlots;
+        executorService = executionConfig.getThreadMode().newExecutorService("script-execution-", totalSlots);
+        maxBufferedBytes = executionConfig.getMaxBufferedBytes();
+
+        var totalWeight = envConfig.getLanes().values().stream().mapToInt(Integer::intValue).sum();
+        for (var entry : envConfig.getLanes().entrySet()) {
+            var slots = Math.max(1, (int) Math.ceil((double) totalSlots * entry.getValue() / totalWeight));
+            var maxInFlight = executionConfig.getMaxInFlight() != null ? executionConfig.getMaxInFlight() : 2 * slots;
+            var lane = new Lane(entry.getKey(), entry.getValue(), slots, maxInFlight);
+            lanes.put(lane.name, lane);
+
+            Gauge.builder("phaedra2.scriptengine.worker.executions.inflight", lane, l -> l.inFlight)
+                .description("Number of script executions that are queued or running")
+                .tag("lane", lane.name)
+                .register(meterRegistry);
+
+            logger.info("Lane {} may use {} of the {} execution slot(s), pausing consumption above {} in-flight executions", lane.name, slots, totalSlots, maxInFlight);
+        }
+
+        Gauge.builder("phaedra2.scriptengine.worker.executions.buffered", bufferedBytes, AtomicLong::get)
+            .description("Estimated memory used by the inputs of the script executions that are queued or running")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+
+        logger.info("Using {} execution slot(s) on {} threads for the {} executor, pausing consumption above {} buffered bytes",
+            totalSlots, executionConfig.getThreadMode(), executorRegistration.getLanguage(), maxBufferedBytes);
+    }
+
+    /**
+     * Queues the script for execution in the next free slot of its lane.
+     *
+     * @param laneName    the lane of the request
+     * @param input       the script to execute
+     * @param submittedAt when the request was submitted, used to measure the time spent in the queue
+     * @return future completed with the output of the script, or with null when the executor did not produce an output
+     */
+    public CompletableFuture<ScriptExecutionOutputDTO> submit(String laneName, ScriptExecutionInputDTO input, Instant submittedAt) {
+        var lane = getLane(laneName);
+        var execution = new PendingExecution(input, submittedAt, estimateSize(input));
+        synchronized (this) {
+            lane.pending.add(execution);
+            lane.inFlight++;
+            bufferedBytes.addAndGet(execution.size);
+            updatePausedLanes();
+            dispatch();
+        }
+        return execution.result;
+    }
+
+    /**
+     * @return the number of queued and running executions of the lane above which its consumption is paused
+     */
+    public int getMaxInFlight(String laneName) {
+        return getLane(laneName).maxInFlight;
+    }
+
+    private Lane getLane(String laneName) {
+        var lane = lanes.get(laneName);
+        if (lane == null) {
+            throw new IllegalArgumentException(String.format("Lane %s is not served by this worker", laneName));
+        }
+        return lane;
+    }
+
+    public int getTotalSlots() {
+        return totalSlots;
+    }
+
+    public synchronized int getFreeSlots() {
+        return freeSlots;
+    }
+
+    public synchronized int getInFlight() {
+        return lanes.values().stream().mapToInt(l -> l.inFlight).sum();
+    }
+
+    /**
+     * @return the number of accepted requests waiting for a slot.
+     */
+    public synchronized int getQueueDepth() {
+        return lanes.values().stream().mapToInt(l -> l.pending.size()).sum();
+    }
+
+    /**
+     * @return the current capacity of each lane.
+     */
+    public synchronized Map<String, LaneCapacityDTO> getLaneCapacity() {
+        var capacity = new HashMap<String, LaneCapacityDTO>();
+        for (var lane : lanes.values()) {
+            capacity.put(lane.name, LaneCapacityDTO.builder()
+                .slots(lane.slots)
+                .freeSlots(Math.min(freeSlots, lane.slots - lane.running))
+                .queueDepth(lane.pending.size())
+                .build());
+        }
+        return capacity;
+    }
+
+    /**
+     * Starts queued executions as long as slots are free. Must be called while holding the lock on this service.
+     */
+    private void dispatch() {
+        while (freeSlots > 0) {
+            Lane next = null;
+            for (var lane : lanes.values()) {
+                if (lane.pending.isEmpty() || lane.running >= lane.slots) continue;
+                if (next == null || lane.usage() < next.usage() || (lane.usage() == next.usage() && lane.weight > next.weight)) {
+                    next = lane;
+                }
+            }
+            if (next == null) return;
+
+            var lane = next;
+            var execution = lane.pending.poll();
+            lane.running++;
+            freeSlots--;
+            try {
+                executorService.execute(() -> run(lane, execution));
+            } catch (RejectedExecutionException e) {
+                onCompleted(lane, execution);
+                execution.result.completeExceptionally(e);
+                return;
+            }
+        }
+    }
+
+    private void run(Lane lane, PendingExecution execution) {
+        ScriptExecutionOutputDTO output = null;
+        Throwable failure = null;
+        try {
+            output = execute(execution);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (Throwable e) {
+            failure = e;
+        }
+
+        synchronized (this) {
+            onCompleted(lane, execution);
+            dispatch();
+        }
+
+        // complete outside the lock, since this runs the callbacks (e.g. publishing the output)
+        if (failure != null) {
+            execution.result.completeExceptionally(failure);
+        } else {
+            execution.result.complete(output);
+        }
+    }
+
+    private ScriptExecutionOutputDTO execute(PendingExecution execution) throws Exception {
+        var input = execution.input;
+        var start = Instant.now();
+        applicationEventPublisher.publishEvent(new ScriptReceivedEvent(this, input, durationSince(execution.submittedAt, start)));
+
+        ScriptExecutionOutputDTO output = null;
+        try {
+            heartbeatSenderService.sendAndStartHeartbeats(input);
+
+            logger.info("Processing script execution request: " + input.getId());
+            output = executor.execute(input);
+            return output;
+        } finally {
+            heartbeatSenderService.stopHeartbeats(input);
+
+            var end = Instant.now();
+            var statusCode = output != null ? output.getStatusCode() : null;
+            applicationEventPublisher.publishEvent(new ScriptProcessedEvent(this, input, statusCode, Duration.between(start, end), durationSince(execution.submittedAt, end)));
+        }
+    }
+
+    /**
+     * @return the time since the given instant, or zero when it is in the future (i.e. the clocks are not in sync)
+     */
+    private static Duration durationSince(Instant instant, Instant now) {
+        var duration = Duration.between(instant, now);
+        return duration.isNegative() ? Duration.ZERO : duration;
+    }
+
+    private void onCompleted(Lane lane, PendingExecution execution) {
+        lane.running--;
+        lane.inFlight--;
+        freeSlots++;
+        bufferedBytes.addAndGet(-execution.size);
+        updatePausedLanes();
+    }
+
+    /**
+     * Pauses or resumes the consumption of the lanes, based on their current load.
+     * Must be called while holding the lock on this service.
+     */
+    private void updatePausedLanes() {
+        var currentBufferedBytes = bufferedBytes.get();
+        for (var lane : lanes.values()) {
+            if (!lane.paused && (lane.inFlight >= lane.maxInFlight || currentBufferedBytes >= maxBufferedBytes)) {
+                logger.info("Pausing consumption of lane {}: {} in-flight executions, {} buffered bytes", lane.name, lane.inFlight, currentBufferedBytes);
+                lane.paused = true;
+                setPaused(lane, true);
+            } else if (lane.paused && lane.inFlight <= lane.maxInFlight / 2 && currentBufferedBytes <= maxBufferedBytes / 2) {
+                logger.info("Resuming consumption of lane {}: {} in-flight executions, {} buffered bytes", lane.name, lane.inFlight, currentBufferedBytes);
+                lane.paused = false;
+                setPaused(lane, false);
+            }
+        }
+    }
+
+    private void setPaused(Lane lane, boolean paused) {
+        var container = kafkaListenerEndpointRegistry.getListenerContainer(KafkaConfig.getListenerId(lane.name));
+        if (container == null) return;
+        if (paused) {
+            container.pause();
+        } else {
+            container.resume();
+        }
+    }
+
+    /**
+     * @return rough estimate of the heap used by the script and input of a request (two bytes per character)
+     */
+    private static long estimateSize(ScriptExecutionInputDTO input) {
+        long size = 0;
+        if (input.getScript() != null) size += input.getScript().length();
+        if (input.getInput() != null) size += input.getInput().length();
+        return 2 * size;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    private static class Lane {
+
+        private final String name;
+        private final int weight;
+        private final int slots;
+        private final int maxInFlight;
+        private final Queue<PendingExecution> pending = new ArrayDeque<>();
+
+        private int running = 0;
+        private volatile int inFlight = 0;
+        private boolean paused = false;
+
+        private Lane(String name, int weight, int slots, int maxInFlight) {
+            this.name = name;
+            this.weight = weight;
+            this.slots = slots;
+            this.maxInFlight = maxInFlight;
+        }
+
+        private double usage() {
+            return (double) running / slots;
+        }
+
+    }
+
+    private static class PendingExecution {
+
+        private final ScriptExecutionInputDTO input;
+        private final Instant submittedAt;
+        private final long size;
+        private final CompletableFuture<ScriptExecutionOutputDTO> result = new CompletableFuture<>();
+
+        private PendingExecution(ScriptExecutionInputDTO input, Instant submittedAt, long size) {
+            this.input = input;
+            this.submittedAt = submittedAt;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -21,48 +21,107 @@
 package eu.openanalytics.phaedra.scriptengine.service;
 
 import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.EVENT_SCRIPT_EXECUTION_HEARTBEAT;
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.EVENT_SCRIPT_EXECUTION_HEARTBEAT_BATCH;
 import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.TOPIC_SCRIPTENGINE;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatBatchDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.HeartbeatDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ResourceUsageDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
+/**
+ * Sends heartbeats for the executions in progress, so that the watchdog does not reschedule them.
+ * <p>
+ * The heartbeats are scheduled at a fixed rate, with a random phase per worker so that workers started together do
+ * not all send their heartbeats at the same instant. Sending happens on a separate thread, so that a slow broker
+ * cannot delay the schedule. When the previous heartbeats are still being sent, a tick is skipped instead of queueing
+ * up heartbeats.
+ * <p>
+ * When supported by the executor, the heartbeats include the resources used by the execution so far.
+ */
 @Service
 public class HeartbeatSenderService {
 
     private final Set<String> executionsInProgress = ConcurrentHashMap.newKeySet();
 	private final KafkaTemplate<String, Object> kafkaTemplate;
+	private final EnvConfig envConfig;
+	private final IExecutor executor;
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	
-    public HeartbeatSenderService(KafkaTemplate<String, Object> kafkaTemplate, EnvConfig envConfig) {
+
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService sender;
+	private final AtomicBoolean sending = new AtomicBoolean();
+
+	private final Timer driftTimer;
+	private final Timer sendTimer;
+	private final Counter skippedTicks;
+	private final Counter failedSends;
+
+    public HeartbeatSenderService(KafkaTemplate<String, Object> kafkaTemplate, EnvConfig envConfig, IExecutor executor, MeterRegistry meterRegistry) {
     	this.kafkaTemplate = kafkaTemplate;
+    	this.envConfig = envConfig;
+    	this.executor = executor;
+
+        driftTimer = Timer.builder("phaedra2.scriptengine.worker.heartbeat.drift")
+            .description("Delay between the scheduled and actual time of a heartbeat tick")
+            .register(meterRegistry);
+        sendTimer = Timer.builder("phaedra2.scriptengine.worker.heartbeat.send")
+            .description("Time between sending a heartbeat and its acknowledgement by the broker")
+            .register(meterRegistry);
+        skippedTicks = Counter.builder("phaedra2.scriptengine.worker.heartbeat.skipped")
+            .description("Number of heartbeat ticks skipped because the previous heartbeats were still being sent")
+            .register(meterRegistry);
+        failedSends = Counter.builder("phaedra2.scriptengine.worker.heartbeat.failures")
+            .description("Number of heartbeats that could not be sent")
+            .register(meterRegistry);
+
+        var threadFactory = new CustomizableThreadFactory("heartbeat-scheduler-");
+        threadFactory.setDaemon(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        var senderThreadFactory = new CustomizableThreadFactory("heartbeat-sender-");
+        senderThreadFactory.setDaemon(true);
+        sender = Executors.newSingleThreadExecutor(senderThreadFactory);
+
+        // send at fixed rate so that the heartbeats are sent at the exact times, starting at a random phase of the interval
+        var interval = TimeUnit.SECONDS.toNanos(envConfig.getHeartbeatInterval());
+        var initialDelay = ThreadLocalRandom.current().nextLong(interval);
+        var firstTick = System.nanoTime() + initialDelay;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            private long tick = 0;
 
-        // send at fixed rate so that the heartbeats are sent at the exact times
-        new Timer().scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                for (var executionId : executionsInProgress) {
-                    try {
-                        sendHeartbeat(executionId);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+                var drift = System.nanoTime() - (firstTick + tick++ * interval);
+                driftTimer.record(Math.max(0, drift), TimeUnit.NANOSECONDS);
+                onTick();
             }
-        }, 0, envConfig.getHeartbeatInterval() * 1000L);
-
+        }, initialDelay, interval, TimeUnit.NANOSECONDS);
     }
 
     public void sendAndStartHeartbeats(ScriptExecutionInputDTO input) throws JsonProcessingException {
@@ -74,10 +133,72 @@ public class HeartbeatSenderService {
         executionsInProgress.remove(input.getId());
     }
 
+    private void onTick() {
+        if (executionsInProgress.isEmpty()) return;
+        if (!sending.compareAndSet(false, true)) {
+            logger.warn("Skipping heartbeats, the previous heartbeats are still being sent");
+            skippedTicks.increment();
+            return;
+        }
+        sender.execute(() -> {
+            try {
+                if (envConfig.getBatchHeartbeats()) {
+                    sendHeartbeatBatch();
+                } else {
+                    for (var executionId : executionsInProgress) {
+                        sendHeartbeat(executionId);
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to send heartbeats", e);
+            } finally {
+                sending.set(false);
+            }
+        });
+    }
+
     private void sendHeartbeat(String id) throws JsonProcessingException {
-    	HeartbeatDTO heartbeat = HeartbeatDTO.builder().scriptExecutionId(id).build();
-    	kafkaTemplate.send(TOPIC_SCRIPTENGINE, EVENT_SCRIPT_EXECUTION_HEARTBEAT, heartbeat);
-        logger.info("Sent heartbeat for {}", id);
+    	HeartbeatDTO heartbeat = HeartbeatDTO.builder().scriptExecutionId(id).resourceUsage(executor.getResourceUsage(id)).build();
+    	send(EVENT_SCRIPT_EXECUTION_HEARTBEAT, heartbeat);
+        logger.debug("Sent heartbeat for {}", id);
+    }
+
+    /**
+     * Sends a single heartbeat for all executions in progress, instead of one heartbeat per execution.
+     */
+    private void sendHeartbeatBatch() {
+        var ids = new ArrayList<>(executionsInProgress);
+        if (ids.isEmpty()) return;
+
+        var resourceUsage = new HashMap<String, ResourceUsageDTO>();
+        for (var id : ids) {
+            var usage = executor.getResourceUsage(id);
+            if (usage != null) resourceUsage.put(id, usage);
+        }
+
+        HeartbeatBatchDTO heartbeatBatch = HeartbeatBatchDTO.builder()
+            .workerId(envConfig.getWorkerId())
+            .scriptExecutionIds(ids)
+            .resourceUsage(resourceUsage.isEmpty() ? null : resourceUsage)
+            .build();
+        send(EVENT_SCRIPT_EXECUTION_HEARTBEAT_BATCH, heartbeatBatch);
+        logger.debug("Sent heartbeat for {} executions", ids.size());
+    }
+
+    private void send(String key, Object heartbeat) {
+        var start = System.nanoTime();
+        kafkaTemplate.send(TOPIC_SCRIPTENGINE, key, heartbeat).addCallback(
+            result -> sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS),
+            ex -> {
+                failedSends.increment();
+                logger.warn("Failed to send heartbeat", ex);
+            });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        sender.shutdown();
     }
 
 }
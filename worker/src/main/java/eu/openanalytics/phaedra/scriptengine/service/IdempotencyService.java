@@ -0,0 +1,164 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import eu.openanalytics.phaedra.scriptengine.config.IdempotencyConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Remembers the script executions of recent requests, keyed by the id of the request.
+ * <p>
+ * After a rebalance or a crash before the offset was committed, a request is delivered again. When the original
+ * execution is still running, the redelivered request attaches to it. When it already completed, its output is
+ * returned again (so that it is republished) instead of executing the script another time.
+ * <p>
+ * Executions that failed or did not produce an output are forgotten immediately, so that a redelivery retries them.
+ * The store is bounded: completed executions expire after the configured TTL and the oldest completed executions are
+ * evicted when the maximum number of entries is reached. Running executions are never evicted, since a redelivery
+ * would run them again, therefore the store temporarily exceeds its maximum when more executions are running.
+ */
+@Service
+public class IdempotencyService {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private long lastSweep = 0;
+
+    private final Counter inProgressHits;
+    private final Counter completedHits;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public IdempotencyService(IdempotencyConfig idempotencyConfig, MeterRegistry meterRegistry) {
+        this.enabled = idempotencyConfig.getEnabled();
+        this.maxEntries = idempotencyConfig.getMaxEntries();
+        this.ttlMillis = idempotencyConfig.getTtlSeconds() * 1000;
+
+        inProgressHits = Counter.builder("phaedra2.scriptengine.worker.idempotency.hits")
+            .description("Number of redelivered requests that re-used an earlier execution")
+            .tag("state", "in-progress")
+            .register(meterRegistry);
+        completedHits = Counter.builder("phaedra2.scriptengine.worker.idempotency.hits")
+            .description("Number of redelivered requests that re-used an earlier execution")
+            .tag("state", "completed")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Returns the execution of an earlier request with the same id, or starts a new execution.
+     *
+     * @param id      the id of the request
+     * @param execute starts the execution of the request
+     * @return future completed with the output of the (earlier) execution
+     */
+    public CompletableFuture<ScriptExecutionOutputDTO> execute(String id, Supplier<CompletableFuture<ScriptExecutionOutputDTO>> execute) {
+        if (!enabled || id == null) return execute.get();
+
+        var entry = new Entry();
+        synchronized (this) {
+            evict(System.currentTimeMillis());
+
+            var existing = entries.get(id);
+            if (existing != null) {
+                if (existing.result.isDone()) {
+                    logger.info("Republishing the output of the earlier execution of redelivered request " + id);
+                    completedHits.increment();
+                } else {
+                    logger.info("Attaching redelivered request " + id + " to its running execution");
+                    inProgressHits.increment();
+                }
+                return existing.result;
+            }
+            entries.put(id, entry);
+        }
+
+        CompletableFuture<ScriptExecutionOutputDTO> result;
+        try {
+            result = execute.get();
+        } catch (RuntimeException e) {
+            forget(id, entry);
+            throw e;
+        }
+
+        result.whenComplete((output, ex) -> {
+            if (ex != null || output == null) {
+                forget(id, entry);
+            } else {
+                synchronized (this) {
+                    entry.completedAt = System.currentTimeMillis();
+                }
+            }
+        });
+        // attach the redelivered requests to the execution, but only once its entry is updated
+        result.whenComplete((output, ex) -> {
+            if (ex != null) {
+                entry.result.completeExceptionally(ex);
+            } else {
+                entry.result.complete(output);
+            }
+        });
+        return entry.result;
+    }
+
+    private synchronized void forget(String id, Entry entry) {
+        entries.remove(id, entry);
+    }
+
+    /**
+     * Removes the expired entries (at most once per second) and, when the store is full, the oldest completed entries.
+     * Must be called while holding the lock on this service.
+     */
+    private void evict(long now) {
+        if (now - lastSweep >= 1000) {
+            lastSweep = now;
+            entries.values().removeIf(entry -> entry.completedAt != null && now - entry.completedAt > ttlMillis);
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() >= maxEntries && it.hasNext()) {
+            if (it.next().completedAt != null) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final CompletableFuture<ScriptExecutionOutputDTO> result = new CompletableFuture<>();
+        private Long completedAt;
+
+    }
+
+}
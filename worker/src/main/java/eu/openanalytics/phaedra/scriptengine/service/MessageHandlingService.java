@@ -20,69 +20,207 @@
  */
 package eu.openanalytics.phaedra.scriptengine.service;
 
-import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.EVENT_SCRIPT_EXECUTION_UPDATE;
-import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.TOPIC_SCRIPTENGINE;
-
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.AbstractConsumerSeekAware;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.config.KafkaConfig;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
 import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
-import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
 
+/**
+ * Consumes script execution requests and hands them over to the execution slots, without waiting for their execution.
+ * <p>
+ * The offset of a request is only committed once its output has been published and all earlier requests of its
+ * partition completed, see {@link OffsetTracker}.
+ * <p>
+ * The listener methods are registered for every lane by {@link KafkaConfig#scriptExecutionRequestListeners}.
+ */
 @Service
-public class MessageHandlingService {
+public class MessageHandlingService extends AbstractConsumerSeekAware {
 	
-	private final KafkaTemplate<String, Object> kafkaTemplate;
+	private final ResultPublisherService resultPublisherService;
 	
 	private final EnvConfig envConfig;
     private final ObjectMapper objectMapper;
-    private final IExecutor executor;
-    private final HeartbeatSenderService heartbeatSenderService;
+    private final ExecutionSlotService executionSlotService;
+    private final IdempotencyService idempotencyService;
+    private final OffsetTracker offsetTracker = new OffsetTracker();
     
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    public MessageHandlingService(KafkaTemplate<String, Object> kafkaTemplate, EnvConfig envConfig, ObjectMapper objectMapper, IExecutor executor, HeartbeatSenderService heartbeatSenderService) {
-    	this.kafkaTemplate = kafkaTemplate;
+    public MessageHandlingService(ResultPublisherService resultPublisherService, EnvConfig envConfig, ObjectMapper objectMapper, ExecutionSlotService executionSlotService, IdempotencyService idempotencyService) {
+    	this.resultPublisherService = resultPublisherService;
     	this.envConfig = envConfig;
         this.objectMapper = objectMapper;
-        this.executor = executor;
-        this.heartbeatSenderService = heartbeatSenderService;
+        this.executionSlotService = executionSlotService;
+        this.idempotencyService = idempotencyService;
     }
   
-    @KafkaListener(topics = TOPIC_SCRIPTENGINE, filter = "scriptExecutionRequestFilter")
-    public void onScriptExecutionRequest(String message) {
+    /**
+     * Hands the request over to the execution slots of its lane, without waiting for its execution.
+     * The request is acknowledged once its output has been published. When its output cannot be published (even after
+     * the retries of {@link ResultPublisherService}), the request is consumed again.
+     */
+    public void onScriptExecutionRequest(ConsumerRecord<String, String> record, Acknowledgment acknowledgment) {
+    	var delivery = offsetTracker.add(record, acknowledgment);
+    	var message = record.value();
+    	ScriptExecutionInputDTO input = parseRequest(record);
+    	if (input == null) {
+    		offsetTracker.complete(delivery);
+    		return;
+    	}
+    	
+    	var inputId = input.getId();
+    	submit(record, input).whenComplete((scriptExecutionOutput, ex) -> {
+    		if (ex != null) {
+    			logger.warn("Exception while processing message " + message, ex);
+    			offsetTracker.complete(delivery);
+    		} else if (scriptExecutionOutput == null) {
+    			offsetTracker.complete(delivery);
+    		} else {
+    			resultPublisherService.publish(scriptExecutionOutput).whenComplete((result, publishEx) -> {
+    				if (publishEx != null) {
+    					logger.error("Failed to publish output of script execution " + inputId + ", seeking back to consume the request again", publishEx);
+    					redeliver(delivery);
+    				} else {
+    					offsetTracker.complete(delivery);
+    				}
+    			});
+    		}
+    	});
+    }
+
+    /**
+     * Batch variant of {@link #onScriptExecutionRequest(ConsumerRecord, Acknowledgment)}, only used when
+     * phaedra2.script-engine-worker.execution.batch-listener is enabled.
+     * All requests of a poll are executed in parallel, after which their outputs are published together, so that the
+     * producer sends them in as few batches as its linger-ms and batch-size allow. The outputs are not flushed
+     * explicitly: that would block the execution thread completing the batch on the acknowledgement of the broker.
+     * The batch is only acknowledged when every output has been published. When an output cannot be published, its
+     * request and all later requests of its partition are consumed again, the other requests of the batch complete.
+     * As for single requests, the listener does not wait for the execution of the batch.
+     */
+    public void onScriptExecutionRequests(List<ConsumerRecord<String, String>> records, Acknowledgment acknowledgment) {
+    	var deliveries = offsetTracker.addAll(records, acknowledgment);
+    	var executions = new ArrayList<CompletableFuture<ScriptExecutionOutputDTO>>(records.size());
+    	for (var record : records) {
+    		var message = record.value();
+    		ScriptExecutionInputDTO input = parseRequest(record);
+    		if (input == null) {
+    			executions.add(CompletableFuture.completedFuture(null));
+    			continue;
+    		}
+
+    		executions.add(submit(record, input).exceptionally(ex -> {
+    			logger.warn("Exception while processing message " + message, ex);
+    			return null;
+    		}));
+    	}
+
+    	CompletableFuture.allOf(executions.toArray(CompletableFuture[]::new)).thenRun(() -> {
+    		var publications = new ArrayList<CompletableFuture<Void>>(records.size());
+    		for (var execution : executions) {
+    			var scriptExecutionOutput = execution.join();
+    			if (scriptExecutionOutput != null) {
+    				publications.add(resultPublisherService.publish(scriptExecutionOutput));
+    			} else {
+    				publications.add(CompletableFuture.completedFuture(null));
+    			}
+    		}
+
+    		CompletableFuture.allOf(publications.toArray(CompletableFuture[]::new)).whenComplete((result, publishEx) -> {
+    			for (int i = 0; i < deliveries.size(); i++) {
+    				var delivery = deliveries.get(i);
+    				try {
+    					publications.get(i).join();
+    					offsetTracker.complete(delivery);
+    				} catch (CompletionException e) {
+    					logger.error("Failed to publish output of the request at offset " + delivery.getOffset() + " of " + delivery.getPartition()
+    						+ ", seeking back to consume the request again", e.getCause());
+    					redeliver(delivery);
+    				}
+    			}
+    		});
+    	});
+    }
+
+    /**
+     * Seeks the partition of the request back to its offset, so that the request and all later requests of the
+     * partition are consumed again. Their executions are re-used, see {@link IdempotencyService}.
+     */
+    private void redeliver(OffsetTracker.Delivery delivery) {
+    	if (!offsetTracker.fail(delivery)) return;
+
+    	var partition = delivery.getPartition();
+    	var callback = getSeekCallbackFor(partition);
+    	if (callback == null) {
+    		logger.info("Partition " + partition + " was revoked, its new owner consumes offset " + delivery.getOffset() + " again");
+    		return;
+    	}
+    	callback.seek(partition.topic(), partition.partition(), delivery.getOffset());
+    }
+
+    /**
+     * Requests of revoked partitions are no longer acknowledged, the new owner of the partition consumes them again.
+     */
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    	super.onPartitionsRevoked(partitions);
+    	offsetTracker.remove(partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+    	super.onPartitionsAssigned(assignments, callback);
+    	offsetTracker.remove(assignments.keySet());
+    }
+
+    /**
+     * Submits the request to the execution slots of its lane, unless it is a redelivery of a request whose execution
+     * is running or completed, see {@link IdempotencyService}.
+     */
+    private CompletableFuture<ScriptExecutionOutputDTO> submit(ConsumerRecord<String, String> record, ScriptExecutionInputDTO input) {
+    	// the timestamp of the record is set by the producer, i.e. when the request was submitted
+    	var submittedAt = record.timestamp() >= 0 ? Instant.ofEpochMilli(record.timestamp()) : Instant.now();
+    	return idempotencyService.execute(input.getId(), () -> executionSlotService.submit(KafkaConfig.getLane(record.topic()), input, submittedAt));
+    }
+
+    /**
+     * @return the parsed request, or null when the record is invalid or should be handled by a worker of another language.
+     */
+    private ScriptExecutionInputDTO parseRequest(ConsumerRecord<String, String> record) {
+    	if (!KafkaConfig.isScriptExecutionRequest(record, envConfig.getLanguage())) return null;
+
+    	var message = record.value();
     	ScriptExecutionInputDTO input = null;
     	try {
             input = objectMapper.readValue(message, ScriptExecutionInputDTO.class);
         } catch (IOException e) {
             logger.warn("Ignoring invalid input message: " + message, e);
-            return;
+            return null;
         }
     	
+    	// Requests carrying a language header were already checked by KafkaConfig.isScriptExecutionRequest
     	boolean matchesLanguage = envConfig.getLanguage().equalsIgnoreCase(input.getLanguage());
-    	if (!matchesLanguage) return; // Let another consumer group handle this message.
-    	
-    	try {
-    		heartbeatSenderService.sendAndStartHeartbeats(input);
-    		
-    		logger.info("Processing script execution request: " + input.getId());
-    		ScriptExecutionOutputDTO scriptExecutionOutput = executor.execute(input);
-            if (scriptExecutionOutput != null) {
-            	kafkaTemplate.send(TOPIC_SCRIPTENGINE, EVENT_SCRIPT_EXECUTION_UPDATE, scriptExecutionOutput);
-            }
-        } catch (Exception e) {
-            logger.warn("Exception while processing message " + message, e);
-        } finally {
-            heartbeatSenderService.stopHeartbeats(input);
-        }
+    	if (!matchesLanguage) return null; // Let another consumer group handle this message.
+
+    	return input;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Keeps track of the consumed requests of which the output is not yet published, per partition.
+ * <p>
+ * Requests complete in any order, but the listener container commits the highest acknowledged offset of a partition.
+ * Therefore a request is only acknowledged once it and all earlier requests of its partition completed, so that a
+ * long-running request never lets the offsets of later requests be committed before its own.
+ * <p>
+ * When a request fails (i.e. its output could not be published), it and all later requests of its partition are
+ * forgotten. The caller must seek the partition back to the failed request, so that they are delivered again.
+ */
+class OffsetTracker {
+
+    private final Map<TopicPartition, NavigableMap<Long, Delivery>> partitions = new HashMap<>();
+
+    /**
+     * Starts tracking a record delivered to a record listener.
+     */
+    synchronized Delivery add(ConsumerRecord<?, ?> record, Acknowledgment acknowledgment) {
+        return add(record, new Commit(acknowledgment, 1));
+    }
+
+    /**
+     * Starts tracking the records delivered to a batch listener.
+     * A batch can only be acknowledged as a whole, which happens once every record of the batch and all earlier records
+     * of their partitions completed.
+     *
+     * @return the deliveries, in the order of the records
+     */
+    synchronized List<Delivery> addAll(List<? extends ConsumerRecord<?, ?>> records, Acknowledgment acknowledgment) {
+        var lastOfPartition = new LinkedHashMap<TopicPartition, Integer>();
+        for (int i = 0; i < records.size(); i++) {
+            lastOfPartition.put(partitionOf(records.get(i)), i);
+        }
+
+        var commit = new Commit(acknowledgment, lastOfPartition.size());
+        var deliveries = new ArrayList<Delivery>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            var record = records.get(i);
+            deliveries.add(add(record, lastOfPartition.get(partitionOf(record)) == i ? commit : null));
+        }
+        return deliveries;
+    }
+
+    private Delivery add(ConsumerRecord<?, ?> record, Commit commit) {
+        var delivery = new Delivery(partitionOf(record), record.offset(), commit);
+        // replaces the delivery of the same record that was forgotten because an earlier request failed
+        partitions.computeIfAbsent(delivery.partition, p -> new TreeMap<>()).put(delivery.offset, delivery);
+        return delivery;
+    }
+
+    /**
+     * Marks the request as completed and acknowledges all requests of its partition that can be committed.
+     * Has no effect when the request was forgotten in the meantime.
+     */
+    synchronized void complete(Delivery delivery) {
+        var deliveries = partitions.get(delivery.partition);
+        if (deliveries == null || deliveries.get(delivery.offset) != delivery) return;
+
+        delivery.completed = true;
+        while (!deliveries.isEmpty() && deliveries.firstEntry().getValue().completed) {
+            var commit = deliveries.pollFirstEntry().getValue().commit;
+            if (commit != null && --commit.pendingPartitions == 0) {
+                commit.acknowledgment.acknowledge();
+            }
+        }
+    }
+
+    /**
+     * Forgets the request and all later requests of its partition. Until the request is delivered again, no later
+     * offset of the partition is acknowledged.
+     *
+     * @return true when the partition must be seeked back to the request, false when the request was already forgotten
+     */
+    synchronized boolean fail(Delivery delivery) {
+        var deliveries = partitions.get(delivery.partition);
+        if (deliveries == null || deliveries.get(delivery.offset) != delivery) return false;
+
+        deliveries.tailMap(delivery.offset, true).clear();
+        deliveries.put(delivery.offset, new Delivery(delivery.partition, delivery.offset, null));
+        return true;
+    }
+
+    /**
+     * Forgets all requests of the given partitions, e.g. because they were revoked.
+     * Requests of these partitions that complete afterwards are not acknowledged.
+     */
+    synchronized void remove(Collection<TopicPartition> topicPartitions) {
+        topicPartitions.forEach(partitions::remove);
+    }
+
+    /**
+     * @return the number of requests of the partition that were delivered but cannot be committed yet
+     */
+    synchronized int getPending(TopicPartition partition) {
+        var deliveries = partitions.get(partition);
+        return deliveries == null ? 0 : deliveries.size();
+    }
+
+    private static TopicPartition partitionOf(ConsumerRecord<?, ?> record) {
+        return new TopicPartition(record.topic(), record.partition());
+    }
+
+    static class Delivery {
+
+        private final TopicPartition partition;
+        private final long offset;
+        private final Commit commit;
+        private boolean completed = false;
+
+        private Delivery(TopicPartition partition, long offset, Commit commit) {
+            this.partition = partition;
+            this.offset = offset;
+            this.commit = commit;
+        }
+
+        TopicPartition getPartition() {
+            return partition;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+    }
+
+    private static class Commit {
+
+        private final Acknowledgment acknowledgment;
+        private int pendingPartitions;
+
+        private Commit(Acknowledgment acknowledgment, int pendingPartitions) {
+            this.acknowledgment = acknowledgment;
+            this.pendingPartitions = pendingPartitions;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.EVENT_SCRIPT_EXECUTION_UPDATE;
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.HEADER_EXECUTION_ID;
+import static eu.openanalytics.phaedra.scriptengine.config.KafkaConfig.TOPIC_SCRIPTENGINE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import eu.openanalytics.phaedra.scriptengine.config.ResultPublisherConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes the output of scripts using a dedicated producer, tuned for (large) outputs.
+ * Publishing never blocks on the acknowledgement of the broker: the returned future is completed once the output has
+ * been acknowledged, failed sends are retried on a separate thread.
+ */
+@Service
+public class ResultPublisherService {
+
+    private final ResultPublisherConfig config;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("result-publisher-retry-"));
+
+    private final Timer publishTimer;
+    private final Counter retryCounter;
+    private final Counter failureCounter;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public ResultPublisherService(ProducerFactory<String, Object> producerFactory, ResultPublisherConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory, Map.of(
+            ProducerConfig.COMPRESSION_TYPE_CONFIG, config.getCompressionType(),
+            ProducerConfig.LINGER_MS_CONFIG, config.getLingerMs(),
+            ProducerConfig.BATCH_SIZE_CONFIG, config.getBatchSize()));
+
+        publishTimer = Timer.builder("phaedra2.scriptengine.worker.result.publish")
+            .description("Time between publishing the output of a script and its acknowledgement by the broker, including retries")
+            .register(meterRegistry);
+        retryCounter = Counter.builder("phaedra2.scriptengine.worker.result.publish.retries")
+            .description("Number of times publishing an output was retried")
+            .register(meterRegistry);
+        failureCounter = Counter.builder("phaedra2.scriptengine.worker.result.publish.failures")
+            .description("Number of outputs that could not be published after all retries")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Publishes the output of a script.
+     *
+     * @param output the output to publish
+     * @return future completed when the output has been acknowledged by the broker, or completed exceptionally when
+     * the output could not be published after the configured number of retries.
+     */
+    public CompletableFuture<Void> publish(ScriptExecutionOutputDTO output) {
+        var result = new CompletableFuture<Void>();
+        send(output, 0, System.nanoTime(), result);
+        return result;
+    }
+
+    private void send(ScriptExecutionOutputDTO output, int attempt, long start, CompletableFuture<Void> result) {
+        var record = new ProducerRecord<String, Object>(TOPIC_SCRIPTENGINE, EVENT_SCRIPT_EXECUTION_UPDATE, output);
+        if (output.getInputId() != null) {
+            record.headers().add(HEADER_EXECUTION_ID, output.getInputId().getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            kafkaTemplate.send(record).addCallback(
+                sendResult -> {
+                    publishTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    result.complete(null);
+                },
+                ex -> onFailure(output, attempt, start, result, ex));
+        } catch (Exception ex) {
+            onFailure(output, attempt, start, result, ex);
+        }
+    }
+
+    private void onFailure(ScriptExecutionOutputDTO output, int attempt, long start, CompletableFuture<Void> result, Throwable ex) {
+        if (attempt < config.getMaxRetries()) {
+            logger.warn("Failed to publish output of script execution {} (attempt {}), retrying", output.getInputId(), attempt + 1, ex);
+            retryCounter.increment();
+            retryScheduler.schedule(() -> send(output, attempt + 1, start, result), config.getRetryBackoffMs(), TimeUnit.MILLISECONDS);
+        } else {
+            failureCounter.increment();
+            result.completeExceptionally(ex);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdown();
+        kafkaTemplate.destroy();
+    }
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.openanalytics.phaedra.scriptengine.config.ResultCacheConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ExchangeFormat;
+import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CachingExecutorTest {
+
+    private final List<String> executed = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void reusesOutputOfIdenticalExecution() throws Exception {
+        var executor = createExecutor(config(null));
+
+        var first = executor.execute(input("1", "a"));
+        var second = executor.execute(input("2", "a"));
+
+        Assertions.assertEquals(List.of("1"), executed);
+        Assertions.assertEquals("2", second.getInputId());
+        Assertions.assertEquals(first.getOutput(), second.getOutput());
+        Assertions.assertEquals(ResponseStatusCode.SUCCESS, second.getStatusCode());
+        Assertions.assertEquals(1, count("hit"));
+        Assertions.assertEquals(1, count("miss"));
+    }
+
+    @Test
+    public void executesWhenInputDiffers() throws Exception {
+        var executor = createExecutor(config(null));
+
+        executor.execute(input("1", "a"));
+        executor.execute(input("2", "b"));
+
+        Assertions.assertEquals(List.of("1", "2"), executed);
+        Assertions.assertEquals(0, count("hit"));
+        Assertions.assertEquals(2, count("miss"));
+    }
+
+    @Test
+    public void executesWhenExchangeFormatDiffers() throws Exception {
+        var executor = createExecutor(config(null));
+
+        var binary = input("1", "a");
+        binary.setExchangeFormat(ExchangeFormat.BINARY);
+        executor.execute(binary);
+        executor.execute(input("2", "a"));
+        var json = input("3", "a");
+        json.setExchangeFormat(ExchangeFormat.JSON);
+        executor.execute(json);
+
+        // no exchange format is the same as JSON
+        Assertions.assertEquals(List.of("1", "2"), executed);
+        Assertions.assertEquals(1, count("hit"));
+    }
+
+    @Test
+    public void doesNotCacheFailedOutput() throws Exception {
+        var executor = createExecutor(config(null));
+
+        executor.execute(input("failing-1", "a"));
+        executor.execute(input("failing-2", "a"));
+
+        Assertions.assertEquals(List.of("failing-1", "failing-2"), executed);
+        Assertions.assertEquals(0, count("hit"));
+    }
+
+    @Test
+    public void bypassesCacheWhenRequested() throws Exception {
+        var executor = createExecutor(config(null));
+
+        var bypassing = input("1", "a");
+        bypassing.setBypassCache(true);
+        executor.execute(bypassing);
+        executor.execute(input("2", "a"));
+        bypassing.setId("3");
+        executor.execute(bypassing);
+
+        // the output of a bypassing execution is not stored, nor is a stored output re-used
+        Assertions.assertEquals(List.of("1", "2", "3"), executed);
+        Assertions.assertEquals(2, count("bypass"));
+        Assertions.assertEquals(1, count("miss"));
+        Assertions.assertEquals(0, count("hit"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOutputFromMemory() throws Exception {
+        // room for a single output of 100 characters
+        var config = config(null);
+        config.setMaxMemoryBytes(300L);
+        var executor = createExecutor(config);
+
+        executor.execute(input("1", "a"));
+        executor.execute(input("2", "a"));
+        executor.execute(input("3", "b"));
+        executor.execute(input("4", "a"));
+
+        Assertions.assertEquals(List.of("1", "3", "4"), executed);
+        Assertions.assertEquals(1, count("hit"));
+    }
+
+    @Test
+    public void reusesOutputFromDisk() throws Exception {
+        var config = config(directory.toString() + "/");
+        config.setMaxMemoryBytes(0L);
+
+        createExecutor(config).execute(input("1", "a"));
+        var output = createExecutor(config).execute(input("2", "a"));
+
+        Assertions.assertEquals(List.of("1"), executed);
+        Assertions.assertEquals("2", output.getInputId());
+        Assertions.assertEquals(1, count("hit"));
+    }
+
+    @Test
+    public void evictsOldestOutputsFromDisk() throws Exception {
+        var config = config(directory.toString() + "/");
+        config.setMaxMemoryBytes(0L);
+        var executor = createExecutor(config);
+        executor.execute(input("1", "a"));
+        var size = directory.toFile().listFiles()[0].length();
+
+        // room for two outputs, when exceeded the oldest outputs are removed until 90% is used
+        config.setMaxDiskBytes(2 * size + size / 2);
+        executor = createExecutor(config);
+        for (var id : List.of("2", "3", "4")) {
+            Thread.sleep(10);
+            executor.execute(input(id, id));
+        }
+
+        var files = directory.toFile().list();
+        Assertions.assertEquals(2, files.length);
+        executor.execute(input("5", "4"));
+        executor.execute(input("6", "a"));
+        Assertions.assertEquals(List.of("1", "2", "3", "4", "6"), executed);
+    }
+
+    private CachingExecutor createExecutor(ResultCacheConfig config) {
+        IExecutor executor = input -> {
+            executed.add(input.getId());
+            var statusCode = input.getId().startsWith("failing") ? ResponseStatusCode.SCRIPT_ERROR : ResponseStatusCode.SUCCESS;
+            return ScriptExecutionOutputDTO.builder().inputId(input.getId()).output("x".repeat(99) + input.getInput()).statusCode(statusCode).build();
+        };
+        return new CachingExecutor(executor, config, "1.0.0", new ObjectMapper(), meterRegistry);
+    }
+
+    private static ResultCacheConfig config(String directory) {
+        var config = new ResultCacheConfig();
+        config.setEnabled(true);
+        config.setDirectory(directory);
+        config.init();
+        return config;
+    }
+
+    private static ScriptExecutionInputDTO input(String id, String input) {
+        return ScriptExecutionInputDTO.builder().id(id).language("R").script("output <- input").input(input).build();
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("phaedra2.scriptengine.worker.result.cache").tag("result", result).counter().count();
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import eu.openanalytics.phaedra.scriptengine.exception.InvalidOutputException;
+import eu.openanalytics.phaedra.scriptengine.exception.OutputTooLargeException;
+
+public class ColumnarCodecTest {
+
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void roundTripsScalars() throws Exception {
+        Assertions.assertEquals("1.5", roundTrip("1.5"));
+        Assertions.assertEquals("42", roundTrip("42"));
+        Assertions.assertEquals("true", roundTrip("true"));
+        Assertions.assertEquals("\"text\"", roundTrip("\"text\""));
+    }
+
+    @Test
+    public void roundTripsVectors() throws Exception {
+        Assertions.assertEquals("[1,2.5,-3]", roundTrip("[1, 2.5, -3]"));
+        Assertions.assertEquals("[true,false]", roundTrip("[true, false]"));
+        Assertions.assertEquals("[\"a\",\"b\"]", roundTrip("[\"a\", \"b\"]"));
+        // like rjson, a vector of length 1 is a scalar
+        Assertions.assertEquals("7", roundTrip("[7]"));
+    }
+
+    @Test
+    public void roundTripsNestedObjects() throws Exception {
+        var json = "{\"plate\":{\"wells\":[1,2,3],\"barcode\":\"P1\",\"valid\":true},\"empty\":{}}";
+        Assertions.assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    public void roundTripsUtf8() throws Exception {
+        var json = "{\"mélange µ\":\"välue 😀\",\"測定\":[\"é\",\"ß\"]}";
+        Assertions.assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    public void fallsBackToJsonForOtherValues() throws Exception {
+        Assertions.assertEquals("null", roundTrip("null"));
+        Assertions.assertEquals("[]", roundTrip("[]"));
+        Assertions.assertEquals("[1,\"a\"]", roundTrip("[1,\"a\"]"));
+        Assertions.assertEquals("[1,null]", roundTrip("[1,null]"));
+        Assertions.assertEquals("[[1,2],[3]]", roundTrip("[[1,2],[3]]"));
+        Assertions.assertEquals("[{\"a\":1},{\"a\":2}]", roundTrip("[{\"a\":1},{\"a\":2}]"));
+        Assertions.assertEquals("{\"values\":[],\"missing\":null}", roundTrip("{\"values\":[],\"missing\":null}"));
+    }
+
+    @Test
+    public void decodesNaAsNull() throws Exception {
+        var doubles = buffer(4 + 1 + 4 + 2 * 8);
+        doubles.put(ColumnarCodec.DOUBLE).putInt(2).putDouble(1.0).putDouble(Double.NaN);
+        Assertions.assertEquals("[1,null]", decode(doubles));
+
+        var logicals = buffer(4 + 1 + 4 + 2 * 4);
+        logicals.put(ColumnarCodec.LOGICAL).putInt(2).putInt(0).putInt(Integer.MIN_VALUE);
+        Assertions.assertEquals("[false,null]", decode(logicals));
+
+        var strings = buffer(4 + 1 + 4 + 4 + 1 + 4);
+        strings.put(ColumnarCodec.STRING).putInt(2).putInt(1).put((byte) 'a').putInt(-1);
+        Assertions.assertEquals("[\"a\",null]", decode(strings));
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws Exception {
+        var file = directory.resolve("output.bin");
+        ColumnarCodec.encode("{\"values\":[1,2,3],\"name\":\"plate\"}", file);
+        var bytes = Files.readAllBytes(file);
+        for (var length : new int[]{0, 2, 6, bytes.length - 1}) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            Assertions.assertThrows(InvalidOutputException.class, () -> ColumnarCodec.decode(file, Long.MAX_VALUE), "length " + length);
+        }
+    }
+
+    @Test
+    public void rejectsCorruptFile() throws Exception {
+        var unknownType = buffer(4 + 1 + 4);
+        unknownType.put((byte) 9).putInt(0);
+        Assertions.assertThrows(InvalidOutputException.class, () -> decode(unknownType));
+
+        var hugeLength = buffer(4 + 1 + 4 + 4);
+        hugeLength.put(ColumnarCodec.JSON).putInt(Integer.MAX_VALUE).putInt(0);
+        Assertions.assertThrows(InvalidOutputException.class, () -> decode(hugeLength));
+
+        var file = directory.resolve("output.bin");
+        Files.writeString(file, "{\"not\":\"columnar\"}");
+        Assertions.assertThrows(InvalidOutputException.class, () -> ColumnarCodec.decode(file, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void limitsLengthOfJson() throws Exception {
+        var values = new StringBuilder("[");
+        for (int i = 0; i < 100_000; i++) {
+            values.append(i > 0 ? "," : "").append(i + 1.0 / 3);
+        }
+        var file = directory.resolve("output.bin");
+        ColumnarCodec.encode(values.append("]").toString(), file);
+        var size = Files.size(file);
+        // the JSON text is more than twice as large as the file
+        Assertions.assertThrows(OutputTooLargeException.class, () -> ColumnarCodec.decode(file, 2 * size));
+        Assertions.assertTrue(ColumnarCodec.decode(file, Long.MAX_VALUE).length() > 2 * size);
+    }
+
+    private String roundTrip(String json) throws Exception {
+        var file = Files.createTempFile(directory, "input", ".bin");
+        Files.delete(file);
+        ColumnarCodec.encode(json, file);
+        return ColumnarCodec.decode(file, Long.MAX_VALUE);
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN).put("PHC1".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String decode(ByteBuffer buffer) throws Exception {
+        var file = Files.createTempFile(directory, "output", ".bin");
+        Files.write(file, Arrays.copyOf(buffer.array(), buffer.position()));
+        return ColumnarCodec.decode(file, Long.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.executor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+public class ProcessTreeUsageTest {
+
+    @Test
+    public void reportsPeakRssAboveCurrentRss() throws Exception {
+        Assumptions.assumeTrue(Files.isDirectory(Path.of("/proc/self")), "requires /proc");
+
+        var process = ProcessHandle.current();
+        // touch the memory, so that it is resident
+        var allocation = new byte[64 * 1024 * 1024];
+        Arrays.fill(allocation, (byte) 1);
+        var rssBytes = currentRssBytes(process.pid());
+        var usage = ProcessTreeUsage.read(process);
+
+        Assertions.assertNotNull(usage);
+        Assertions.assertTrue(usage.getPeakRssBytes() >= 64L * 1024 * 1024, "peak RSS " + usage.getPeakRssBytes());
+        Assertions.assertTrue(usage.getPeakRssBytes() >= rssBytes, "peak RSS " + usage.getPeakRssBytes() + ", RSS " + rssBytes);
+        Assertions.assertTrue(usage.getCpuTimeMillis() > 0);
+    }
+
+    private static long currentRssBytes(long pid) throws Exception {
+        for (var line : Files.readAllLines(Path.of("/proc/" + pid + "/status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+            }
+        }
+        throw new AssertionError("No VmRSS in /proc/" + pid + "/status");
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import eu.openanalytics.phaedra.scriptengine.config.IdempotencyConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class IdempotencyServiceTest {
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @Test
+    public void attachesRedeliveryToRunningExecution() {
+        var service = createService(10);
+        var running = new CompletableFuture<ScriptExecutionOutputDTO>();
+
+        var original = service.execute("a", execution(running));
+        var redelivered = service.execute("a", execution(new CompletableFuture<>()));
+        Assertions.assertSame(original, redelivered);
+        Assertions.assertFalse(redelivered.isDone());
+
+        running.complete(output("a"));
+        Assertions.assertEquals("a", redelivered.join().getInputId());
+        Assertions.assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void replaysCompletedExecution() {
+        var service = createService(10);
+
+        var original = service.execute("a", execution(CompletableFuture.completedFuture(output("a"))));
+        var redelivered = service.execute("a", execution(CompletableFuture.completedFuture(output("b"))));
+        Assertions.assertSame(original.join(), redelivered.join());
+        Assertions.assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void executesFailedExecutionAgain() {
+        var service = createService(10);
+
+        service.execute("a", execution(CompletableFuture.failedFuture(new IllegalStateException())));
+        var redelivered = service.execute("a", execution(CompletableFuture.completedFuture(output("a"))));
+        Assertions.assertEquals("a", redelivered.join().getInputId());
+        Assertions.assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void evictsOnlyCompletedExecutionsWhenFull() {
+        var service = createService(2);
+        var running = new CompletableFuture<ScriptExecutionOutputDTO>();
+
+        var original = service.execute("a", execution(running));
+        service.execute("b", execution(CompletableFuture.completedFuture(output("b"))));
+        service.execute("c", execution(CompletableFuture.completedFuture(output("c"))));
+        service.execute("d", execution(CompletableFuture.completedFuture(output("d"))));
+        Assertions.assertEquals(4, executions.get());
+
+        // the running execution survived the eviction of b and c
+        Assertions.assertSame(original, service.execute("a", execution(new CompletableFuture<>())));
+        Assertions.assertEquals(4, executions.get());
+
+        service.execute("b", execution(CompletableFuture.completedFuture(output("b"))));
+        Assertions.assertEquals(5, executions.get());
+    }
+
+    private IdempotencyService createService(int maxEntries) {
+        var config = new IdempotencyConfig();
+        config.setMaxEntries(maxEntries);
+        return new IdempotencyService(config, new SimpleMeterRegistry());
+    }
+
+    private Supplier<CompletableFuture<ScriptExecutionOutputDTO>> execution(CompletableFuture<ScriptExecutionOutputDTO> result) {
+        return () -> {
+            executions.incrementAndGet();
+            return result;
+        };
+    }
+
+    private static ScriptExecutionOutputDTO output(String inputId) {
+        return ScriptExecutionOutputDTO.builder().inputId(inputId).build();
+    }
+
+}
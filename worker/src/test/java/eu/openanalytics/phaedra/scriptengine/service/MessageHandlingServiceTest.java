@@ -0,0 +1,261 @@
+/**
+ * Phaedra II
+ *
+ * Copyright (C) 2016-2023 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.phaedra.scriptengine.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistrar;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.openanalytics.phaedra.scriptengine.config.EnvConfig;
+import eu.openanalytics.phaedra.scriptengine.config.ExecutionConfig;
+import eu.openanalytics.phaedra.scriptengine.config.IdempotencyConfig;
+import eu.openanalytics.phaedra.scriptengine.config.KafkaConfig;
+import eu.openanalytics.phaedra.scriptengine.dto.ResponseStatusCode;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionInputDTO;
+import eu.openanalytics.phaedra.scriptengine.dto.ScriptExecutionOutputDTO;
+import eu.openanalytics.phaedra.scriptengine.executor.IExecutor;
+import eu.openanalytics.phaedra.scriptengine.executor.IExecutorRegistration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the listeners registered by {@link KafkaConfig} on a {@link MockConsumer}.
+ */
+public class MessageHandlingServiceTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition(KafkaConfig.TOPIC_SCRIPTENGINE, 0);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MockConsumer<String, String> consumer = new AssigningMockConsumer();
+    private final KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry = new KafkaListenerEndpointRegistry();
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failedPublications = new AtomicInteger();
+    private final CountDownLatch slowScript = new CountDownLatch(1);
+
+    private ExecutionSlotService executionSlotService;
+
+    @AfterEach
+    public void stop() {
+        slowScript.countDown();
+        kafkaListenerEndpointRegistry.stop();
+        if (executionSlotService != null) executionSlotService.shutdown();
+    }
+
+    @Test
+    public void consumesNewRequestsWhileEarlierRequestIsRunning() throws Exception {
+        start(false);
+
+        consumer.addRecord(request(0, "slow"));
+        consumer.addRecord(request(1, "fast-1"));
+        await(() -> published.contains("fast-1"));
+
+        // consumed after the poll that returned the slow request, while it is still running
+        consumer.addRecord(request(2, "fast-2"));
+        await(() -> published.contains("fast-2"));
+        Assertions.assertEquals(List.of("fast-1", "fast-2"), published);
+        Assertions.assertEquals(0, committedOffset());
+
+        slowScript.countDown();
+        await(() -> committedOffset() == 3);
+        Assertions.assertEquals(List.of("fast-1", "fast-2", "slow"), published);
+    }
+
+    @Test
+    public void consumesRequestAgainWhenPublishingFails() throws Exception {
+        start(false);
+
+        consumer.addRecord(request(0, "flaky"));
+        consumer.addRecord(request(1, "fast-1"));
+        await(() -> published.contains("fast-1") && position() == 0);
+        Assertions.assertEquals(0, committedOffset());
+
+        // the MockConsumer does not keep consumed records, deliver them again as the broker would after the seek
+        consumer.addRecord(request(0, "flaky"));
+        consumer.addRecord(request(1, "fast-1"));
+        await(() -> committedOffset() == 2);
+        Assertions.assertEquals(List.of("fast-1", "flaky", "fast-1"), published);
+    }
+
+    @Test
+    public void completesRestOfBatchWhenPublishingFails() throws Exception {
+        start(true);
+
+        consumer.addRecord(request(0, "fast-1"));
+        consumer.addRecord(request(1, "flaky"));
+        consumer.addRecord(request(2, "fast-2"));
+        await(() -> published.contains("fast-2") && position() == 1);
+
+        consumer.addRecord(request(1, "flaky"));
+        consumer.addRecord(request(2, "fast-2"));
+        await(() -> committedOffset() == 3);
+        Assertions.assertEquals(List.of("fast-1", "fast-2", "flaky", "fast-2"), published);
+    }
+
+    /**
+     * Starts the listener of the default lane. Requests with id "slow" run until the test completes, publishing the
+     * output of the request with id "flaky" fails once.
+     */
+    private void start(boolean batchListener) throws InterruptedException {
+        var envConfig = new EnvConfig();
+        envConfig.setLanguage("noop");
+        envConfig.setHeartbeatInterval(2);
+        envConfig.init();
+
+        var executionConfig = new ExecutionConfig();
+        executionConfig.setSlots(2);
+        executionConfig.setBatchListener(batchListener);
+        executionConfig.init();
+
+        IExecutor executor = input -> {
+            if (input.getId().equals("slow")) {
+                slowScript.await();
+            }
+            return ScriptExecutionOutputDTO.builder().inputId(input.getId()).statusCode(ResponseStatusCode.SUCCESS).build();
+        };
+        var executorRegistration = new IExecutorRegistration() {
+            public String getLanguage() { return "noop"; }
+            public IExecutor createExecutor() { return executor; }
+            public Boolean allowConcurrency() { return true; }
+        };
+
+        var resultPublisherService = Mockito.mock(ResultPublisherService.class);
+        Mockito.when(resultPublisherService.publish(Mockito.any())).thenAnswer(invocation -> {
+            var inputId = invocation.<ScriptExecutionOutputDTO>getArgument(0).getInputId();
+            if (inputId.equals("flaky") && failedPublications.getAndIncrement() == 0) {
+                return CompletableFuture.failedFuture(new TimeoutException());
+            }
+            published.add(inputId);
+            return CompletableFuture.completedFuture(null);
+        });
+
+        var meterRegistry = new SimpleMeterRegistry();
+        executionSlotService = new ExecutionSlotService(executor, executorRegistration, envConfig, executionConfig,
+            Mockito.mock(HeartbeatSenderService.class), kafkaListenerEndpointRegistry, event -> { }, meterRegistry);
+        var idempotencyService = new IdempotencyService(new IdempotencyConfig(), meterRegistry);
+        var messageHandlingService = new MessageHandlingService(resultPublisherService, envConfig, objectMapper, executionSlotService, idempotencyService);
+
+        var containerFactory = new ConcurrentKafkaListenerContainerFactory<String, String>();
+        containerFactory.setConsumerFactory(new ConsumerFactory<>() {
+            @Override
+            public Consumer<String, String> createConsumer(String groupId, String clientIdPrefix, String clientIdSuffix) {
+                return consumer;
+            }
+
+            @Override
+            public boolean isAutoCommit() {
+                return false;
+            }
+
+            @Override
+            public Map<String, Object> getConfigurationProperties() {
+                return Map.of(ConsumerConfig.GROUP_ID_CONFIG, "noop-workers");
+            }
+        });
+        // acknowledged as configured by KafkaConfig, i.e. without async acks
+        containerFactory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        containerFactory.getContainerProperties().setPollTimeout(10);
+
+        var registrar = new KafkaListenerEndpointRegistrar();
+        registrar.setEndpointRegistry(kafkaListenerEndpointRegistry);
+        registrar.setContainerFactory(containerFactory);
+        new KafkaConfig().scriptExecutionRequestListeners(envConfig, executionConfig, messageHandlingService, executionSlotService).configureKafkaListeners(registrar);
+        registrar.afterPropertiesSet();
+
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        kafkaListenerEndpointRegistry.getListenerContainer(KafkaConfig.getListenerId(KafkaConfig.DEFAULT_LANE)).start();
+        await(() -> !consumer.assignment().isEmpty());
+    }
+
+    private ConsumerRecord<String, String> request(long offset, String id) throws JsonProcessingException {
+        var input = ScriptExecutionInputDTO.builder().id(id).language("noop").script("").build();
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, KafkaConfig.EVENT_REQUEST_SCRIPT_EXECUTION, objectMapper.writeValueAsString(input));
+    }
+
+    private long position() {
+        return consumer.position(PARTITION);
+    }
+
+    private long committedOffset() {
+        var committed = consumer.committed(Set.of(PARTITION)).get(PARTITION);
+        return committed == null ? 0 : committed.offset();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Condition not met within 10 seconds");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Assigns a single partition of the subscribed topic, invoking the rebalance listener as a real consumer would.
+     */
+    private static class AssigningMockConsumer extends MockConsumer<String, String> {
+
+        private AssigningMockConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        @Override
+        public synchronized void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+            super.subscribe(topics, listener);
+            schedulePollTask(() -> {
+                rebalance(List.of(PARTITION));
+                listener.onPartitionsAssigned(List.of(PARTITION));
+            });
+        }
+
+        @Override
+        public synchronized Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> timestampsToSearch) {
+            return Map.of();
+        }
+
+    }
+
+}